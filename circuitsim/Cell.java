@@ -0,0 +1,45 @@
+// Cell.java
+// One step of a CompiledCircuit: a truth table, a state table, a primitive,
+// or a set of wire copies made when a subcircuit gathers its inputs.
+
+package circuitsim;
+
+final class Cell
+{
+	static final int COPY=0, TABLE=1, PRIMITIVE=2, STATE=3;
+
+	final int kind;
+	final int in[];             // wires read
+	final int out[];            // wires written
+	final int truthTable[];     // truth table, or state table for STATE cells
+	final Primitive primitive;
+	final int delay[];          // propagation delay of each output
+	final int stateIndex;       // index of the cell's state in a context
+	final int stateBits;
+
+	Cell(int kind, int in[], int out[], int truthTable[], Primitive primitive,
+		int delay[])
+	{
+		this.kind = kind;
+		this.in = in;
+		this.out = out;
+		this.truthTable = truthTable;
+		this.primitive = primitive;
+		this.delay = delay;
+		this.stateIndex = -1;
+		this.stateBits = 0;
+	}
+
+	Cell(int in[], int out[], int stateTable[], int delay[], int stateIndex,
+		int stateBits)
+	{
+		this.kind = STATE;
+		this.in = in;
+		this.out = out;
+		this.truthTable = stateTable;
+		this.primitive = null;
+		this.delay = delay;
+		this.stateIndex = stateIndex;
+		this.stateBits = stateBits;
+	}
+}
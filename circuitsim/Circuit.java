@@ -0,0 +1,1387 @@
+
+// Circuit.java
+// by David Cline
+
+package circuitsim;
+
+import java.io.*;
+import java.util.*;
+
+class ArrayIndex
+{
+	int[] arr;
+	int idx;
+}
+
+public class Circuit
+{
+	//---------------------------------------------------------------------//
+	// Parsing Stuff
+	//---------------------------------------------------------------------//
+	
+	CircuitLibrary library;   // file text and prototypes shared with other circuits
+	transient boolean prototype; // loaded once per type, to be copied
+
+	static final int MAX_TRUTH_TABLE_INPUTS = 16;
+	static final int MAX_TRUTH_TABLE_OUTPUTS = 32;
+	static String keywords[] = { 
+		"inputNames", "outputNames", "outputs", "truthTable", 
+		"circuit", "circuitInputs", "propagationDelay"
+	};
+	transient Scanner scan;
+	transient String extraToken;
+	transient String repeatHead, repeatTail;
+	transient int repeatStart, repeatEnd, repeatVal;
+	transient int repeatTimes;
+	
+	//---------------------------------------------------------------------//
+	// Circuit Definition
+	//---------------------------------------------------------------------//
+	
+	// Circuit type with inputs and outputs
+	String type;
+	ArrayList<String> inputNames = new ArrayList<String>();
+	ArrayList<String> outputNames = new ArrayList<String>();
+	
+	// Internal representation of circuit (either truth table or subcircuits)
+	boolean isCombinatorial;
+	int truthTable[];
+	Primitive primitive;      // word-level replacement for the circuit
+	Primitive matchedPrimitive; // primitive the circuit is known to behave as
+	int stateTable[];         // (state, inputs) -> (next state, outputs)
+	int stateBits;            // number of bits of state
+	int state;                // current state, when using the state table
+	ArrayList<Circuit> internalCircuits = new ArrayList<Circuit>();
+	
+	//---------------------------------------------------------------------//
+	// Circuit Instance
+	//---------------------------------------------------------------------//
+	
+	// Input and Output Setup
+	String name;
+	int inputArrays[][];      // arrays of input from other circuit instances
+	int inputArrayIndices[];  // indices into the input arrays
+	int inputs[];             // input values
+	//
+	int outputArrays[][];     // arrays of input from other circuit instances
+	int outputArrayIndices[]; // indices into the input arrays
+	int outputs[];            // output values
+	
+	int propagationDelay[];   // propagationDelay for each output
+	int numInstances;         // this circuit and all of its subcircuits
+	
+	boolean selectedOutputs[]; // outputs to compute (null for all)
+	ArrayList<Circuit> activeCircuits; // subcircuits they need (null for all)
+	
+	boolean incremental;      // skip subcircuits whose inputs did not change
+	boolean reusable;         // outputs depend only on the inputs
+	
+	// Incremental mode: a changed wire is passed on to the inputs and
+	// outputs that read it.  Wires are numbered inputs first, then the
+	// outputs of each subcircuit in turn.
+	Circuit changingCircuits[]; // subcircuits being simulated
+	int firstOutputWire[];    // wire number of each subcircuit's output 0
+	int wireReaders[][];      // subcircuits reading each wire
+	int wireReaderInputs[][]; // and the input each one reads it on
+	int wireOutputs[][];      // outputs reading each wire
+	int alwaysChanged[];      // subcircuits with state
+	int lastOutputs[];        // outputs of a subcircuit before simulating it
+	int lastInputs[];         // inputs at the last call
+	boolean inputsPassedIn;   // the parent passes on changed inputs
+	BitSet changedCircuits;   // subcircuits to simulate (null for all)
+	BitSet changedOutputs;    // outputs changed since the parent looked
+	
+	//---------------------------------------------------------------------//
+	// Basic Functions
+	//---------------------------------------------------------------------//
+	
+	Circuit() { this(new CircuitLibrary()); }
+	Circuit(CircuitLibrary library) { isCombinatorial = true; this.library = library; }
+	int getInputIndex(String s) { return inputNames.indexOf(s); }
+	int getOutputIndex(String s) { return outputNames.indexOf(s); }
+	
+	//---------------------------------------------------------------------//
+	// SIMULATION FUNCTIONS
+	//---------------------------------------------------------------------//
+	
+	void calculateTruthTable()
+	{
+		for (int i=0; i<internalCircuits.size(); i++) {
+			if (!internalCircuits.get(i).isFullyCombinatorial()) return;
+		}
+	
+		//System.out.println("Calculating truth table for " + type);
+		int numInputs = inputNames.size();
+		int numOutputs = outputNames.size();
+		int numRows = (int)(Math.pow(2, numInputs));
+		int TT[] = new int[numRows];
+		
+		for (int r=0; r<numRows; r++) {
+			for (int i=0; i<numInputs; i++) {
+				inputs[i] = (r>>i) & 0x1;
+			}
+			simulate();
+			int val=0;
+			for (int i=0; i<numOutputs; i++) {
+				val |= outputs[i] << i;
+			}
+			//System.out.println("  " + r + " " + val);
+			TT[r] = val;
+		}
+		truthTable = TT;
+	}
+	
+	boolean isFullyCombinatorial()
+	{
+		if (stateTable != null) return false;
+		if (truthTable != null || primitive != null) return true;
+		if (!isCombinatorial) return false;
+		for (int i=0; i<internalCircuits.size(); i++) {
+			if (!internalCircuits.get(i).isFullyCombinatorial()) return false;
+		}
+		return true;
+	}
+	
+	//---------------------------------------------------------------------//
+	// State tables for sequential circuits
+	//---------------------------------------------------------------------//
+	
+	// Wires read by a subcircuit before they are written during simulate().
+	// These hold the state of a sequential circuit, along with the state of
+	// any sequential subcircuits.
+	transient ArrayList<int[]> feedbackArrays;
+	transient ArrayList<Integer> feedbackIndices;
+	
+	void findFeedback()
+	{
+		feedbackArrays = new ArrayList<int[]>();
+		feedbackIndices = new ArrayList<Integer>();
+		IdentityHashMap<int[], Integer> position = new IdentityHashMap<>();
+		for (int k=0; k<internalCircuits.size(); k++) {
+			position.put(internalCircuits.get(k).outputs, k);
+		}
+		for (int k=0; k<internalCircuits.size(); k++) {
+			Circuit d = internalCircuits.get(k);
+			for (int i=0; i<d.inputs.length; i++) {
+				Integer p = position.get(d.inputArrays[i]);
+				if (p == null || p < k) continue;
+				boolean found = false;
+				for (int j=0; j<feedbackArrays.size(); j++) {
+					if (feedbackArrays.get(j) == d.inputArrays[i] 
+							&& feedbackIndices.get(j) == d.inputArrayIndices[i]) {
+						found = true;
+					}
+				}
+				if (!found) {
+					feedbackArrays.add(d.inputArrays[i]);
+					feedbackIndices.add(d.inputArrayIndices[i]);
+				}
+			}
+		}
+	}
+	
+	int getState()
+	{
+		int st = 0, bit = 0;
+		for (int j=0; j<feedbackArrays.size(); j++) {
+			st |= feedbackArrays.get(j)[feedbackIndices.get(j)] << bit;
+			bit++;
+		}
+		for (int k=0; k<internalCircuits.size(); k++) {
+			Circuit d = internalCircuits.get(k);
+			st |= d.state << bit;
+			bit += d.stateBits;
+		}
+		return st;
+	}
+	
+	void setState(int st)
+	{
+		int bit = 0;
+		for (int j=0; j<feedbackArrays.size(); j++) {
+			feedbackArrays.get(j)[feedbackIndices.get(j)] = (st >> bit) & 0x1;
+			bit++;
+		}
+		for (int k=0; k<internalCircuits.size(); k++) {
+			Circuit d = internalCircuits.get(k);
+			d.state = (st >> bit) & ((1 << d.stateBits) - 1);
+			bit += d.stateBits;
+		}
+	}
+	
+	// Collapse a small sequential circuit into a state table, by simulating
+	// every input from every state reachable from its current state.
+	void calculateStateTable()
+	{
+		int numStateBits = 0;
+		for (int i=0; i<internalCircuits.size(); i++) {
+			Circuit d = internalCircuits.get(i);
+			if (d.truthTable == null && d.primitive == null && d.stateTable == null) return;
+			numStateBits += d.stateBits;
+		}
+		findFeedback();
+		numStateBits += feedbackArrays.size();
+		
+		int numInputs = inputNames.size();
+		int numOutputs = outputNames.size();
+		if (numStateBits == 0 || numStateBits + numInputs > MAX_TRUTH_TABLE_INPUTS
+				|| numStateBits + numOutputs > MAX_TRUTH_TABLE_OUTPUTS-1) {
+			feedbackArrays = null;
+			feedbackIndices = null;
+			return;
+		}
+		
+		//System.out.println("Calculating state table for " + type);
+		int numStates = 1 << numStateBits;
+		int numInputRows = 1 << numInputs;
+		int ST[] = new int[numStates * numInputRows];
+		Arrays.fill(ST, -1); // unreachable
+		
+		int initialState = getState();
+		int queue[] = new int[numStates];
+		boolean reached[] = new boolean[numStates];
+		int head = 0, tail = 0;
+		queue[tail++] = initialState;
+		reached[initialState] = true;
+		
+		while (head < tail) {
+			int st = queue[head++];
+			for (int r=0; r<numInputRows; r++) {
+				setState(st);
+				for (int i=0; i<numInputs; i++) {
+					inputs[i] = (r>>i) & 0x1;
+				}
+				simulate();
+				int next = getState();
+				int val = next;
+				for (int i=0; i<numOutputs; i++) {
+					val |= outputs[i] << (numStateBits + i);
+				}
+				ST[st | (r << numStateBits)] = val;
+				if (!reached[next]) {
+					reached[next] = true;
+					queue[tail++] = next;
+				}
+			}
+		}
+		
+		setState(initialState);
+		state = initialState;
+		stateBits = numStateBits;
+		stateTable = ST;
+		feedbackArrays = null;
+		feedbackIndices = null;
+	}
+	
+	// Replace the circuit with a word-level primitive if it behaves like one.
+	// Circuits with a truth table, read from the file or calculated, are
+	// matched exactly against the table.  Circuits without one are matched
+	// when their children are slices of the primitive, such as a ripple
+	// carry adder of smaller adders, which is checked wire by wire.  Other
+	// circuits are only matched by sampling when asked for, since a sample
+	// can miss a wrong row.  A match is kept even when the circuit keeps
+	// its table, since a table lookup is faster than a 1 bit primitive, so
+	// that its parents can still be matched as chains.  Results are
+	// remembered for each type.  The top-level circuit is never replaced.
+	void recognizePrimitive()
+	{
+		Primitive p = null;
+		if (!library.usePrimitives) return;
+		
+		// Recognizing can leave junk on the wires, so keep the values that
+		// copies of this circuit start with
+		int savedInputs[] = inputs.clone();
+		int savedOutputs[] = outputs.clone();
+		if (truthTable != null) {
+			p = Primitive.recognize(this);
+		}
+		else if (isFullyCombinatorial()) {
+			p = Primitive.recognizeChain(this);
+			if (p == null && library.samplePrimitives) p = Primitive.recognize(this);
+		}
+		matchedPrimitive = p;
+		if (p != null && truthTable != null && p.width == 1) p = null;
+		
+		// Keep the delays of the circuit being replaced
+		if (p != null && internalCircuits.size() > 0) p.calculateDelays(this);
+		System.arraycopy(savedInputs, 0, inputs, 0, inputs.length);
+		System.arraycopy(savedOutputs, 0, outputs, 0, outputs.length);
+		if (p == null) return;
+		
+		primitive = p;
+		if (p.delay != null) propagationDelay = p.delay;
+		internalCircuits = new ArrayList<Circuit>();
+	}
+	
+	void gatherInputs()
+	{
+		for (int i=0; i<inputs.length; i++) {
+			if (inputArrays[i] != null) {
+				inputs[i] = inputArrays[i][inputArrayIndices[i]];
+			}
+		}
+	}
+	
+	// Same as gatherInputs(), but returns whether any input changed
+	boolean gatherChangedInputs()
+	{
+		boolean changed = false;
+		for (int i=0; i<inputs.length; i++) {
+			if (inputArrays[i] != null) {
+				int val = inputArrays[i][inputArrayIndices[i]];
+				if (val != inputs[i]) {
+					inputs[i] = val;
+					changed = true;
+				}
+			}
+		}
+		return changed;
+	}
+	
+	// In incremental mode, simulate() keeps the wire values from the last
+	// call and skips subcircuits whose inputs have not changed.  Sequential
+	// subcircuits are always simulated, since their state may change.
+	void setIncremental(boolean on)
+	{
+		incremental = on;
+		inputsPassedIn = false;
+		clearReaders();
+		reusable = (stateTable == null);
+		if (primitive != null || truthTable != null || stateTable != null) return;
+		if (!isCombinatorial) reusable = false;
+		for (int i=0; i<internalCircuits.size(); i++) {
+			Circuit c = internalCircuits.get(i);
+			c.setIncremental(on);
+			if (!c.reusable) reusable = false;
+		}
+	}
+	
+	void simulate()
+	{
+		// Use word-level primitive if we have one
+		if (primitive != null) {
+			primitive.simulate(inputs, null, outputs, null);
+		}
+		// Otherwise use truth table if we have one
+		else if (truthTable != null) {
+			int row = 0;
+			for (int i=0; i<inputs.length; i++) {
+				row |= inputs[i] << i;
+			}
+			int out = truthTable[row];
+			for (int i=0; i<outputs.length; i++) {
+				outputs[i] = (out >> i) & 0x1;
+			}
+		}
+		// Otherwise use state table if we have one
+		else if (stateTable != null) {
+			simulateStateTable();
+		}
+		// Otherwise simulate the internal circuits
+		else if (incremental) {
+			simulateChangedCircuits();
+		}
+		else {
+			ArrayList<Circuit> list = internalCircuits;
+			if (activeCircuits != null) list = activeCircuits;
+			for (int i=0; i<list.size(); i++) {
+				Circuit c = list.get(i);
+				c.gatherInputs();
+				c.simulate();
+			}
+			for (int i=0; i<outputs.length; i++) {
+				outputs[i] = outputArrays[i][outputArrayIndices[i]];
+			}
+		}
+	}
+	
+	// Kept out of simulate(), so the common cases stay small enough to inline
+	void simulateStateTable()
+	{
+		int row = state;
+		for (int i=0; i<inputs.length; i++) {
+			row |= inputs[i] << (stateBits + i);
+		}
+		int out = stateTable[row];
+		state = out & ((1 << stateBits) - 1);
+		for (int i=0; i<outputs.length; i++) {
+			outputs[i] = (out >> (stateBits + i)) & 0x1;
+		}
+	}
+	
+	// Incremental mode: only simulate subcircuits with a changed input.  A
+	// subcircuit listed before the one whose output it reads sees the
+	// change on the next call, as it would without incremental mode.
+	void simulateChangedCircuits()
+	{
+		boolean all = (changedCircuits == null);
+		if (all) findReaders();
+		BitSet changed = changedCircuits;
+		if (!inputsPassedIn) {
+			for (int i=0; i<inputs.length; i++) {
+				if (inputs[i] != lastInputs[i]) {
+					lastInputs[i] = inputs[i];
+					passOn(i, inputs[i]);
+				}
+			}
+		}
+		for (int i=0; i<alwaysChanged.length; i++) changed.set(alwaysChanged[i]);
+		
+		for (int k=changed.nextSetBit(0); k>=0; k=changed.nextSetBit(k+1)) {
+			changed.clear(k);
+			Circuit c = changingCircuits[k];
+			if (all) c.gatherInputs();
+			if (c.changedOutputs == null) {
+				System.arraycopy(c.outputs, 0, lastOutputs, 0, c.outputs.length);
+			}
+			c.simulate();
+			int wire = firstOutputWire[k];
+			if (c.changedOutputs != null) {
+				BitSet outs = c.changedOutputs;
+				for (int j=outs.nextSetBit(0); j>=0; j=outs.nextSetBit(j+1)) {
+					passOn(wire+j, c.outputs[j]);
+				}
+				outs.clear();
+			}
+			else {
+				for (int j=0; j<c.outputs.length; j++) {
+					if (c.outputs[j] != lastOutputs[j]) passOn(wire+j, c.outputs[j]);
+				}
+			}
+		}
+		if (all) {
+			for (int i=0; i<outputs.length; i++) {
+				outputs[i] = outputArrays[i][outputArrayIndices[i]];
+			}
+			changedOutputs.set(0, outputs.length);
+		}
+	}
+	
+	// Pass a changed wire on to the subcircuits and outputs reading it
+	void passOn(int wire, int val)
+	{
+		int readers[] = wireReaders[wire];
+		int readerInputs[] = wireReaderInputs[wire];
+		for (int n=0; n<readers.length; n++) {
+			Circuit c = changingCircuits[readers[n]];
+			int i = readerInputs[n];
+			if (c.inputs[i] == val) continue;
+			c.inputs[i] = val;
+			if (c.changedCircuits != null) c.passOn(i, val);
+			changedCircuits.set(readers[n]);
+		}
+		int outs[] = wireOutputs[wire];
+		for (int n=0; n<outs.length; n++) {
+			outputs[outs[n]] = val;
+			changedOutputs.set(outs[n]);
+		}
+	}
+	
+	// Number the wires and list their readers.  Every subcircuit is
+	// simulated on the next call, and lists its own readers again.
+	void findReaders()
+	{
+		ArrayList<Circuit> list = internalCircuits;
+		if (activeCircuits != null) list = activeCircuits;
+		int n = list.size();
+		changingCircuits = list.toArray(new Circuit[n]);
+		IdentityHashMap<int[], Integer> firstWire = new IdentityHashMap<>();
+		firstWire.put(inputs, 0);
+		firstOutputWire = new int[n];
+		int numWires = inputs.length;
+		int maxOutputs = 0;
+		ArrayList<Integer> stateful = new ArrayList<Integer>();
+		for (int k=0; k<n; k++) {
+			Circuit c = changingCircuits[k];
+			firstOutputWire[k] = numWires;
+			firstWire.put(c.outputs, numWires);
+			numWires += c.outputs.length;
+			maxOutputs = Math.max(maxOutputs, c.outputs.length);
+			if (!c.reusable) stateful.add(k);
+			c.clearReaders();
+			c.inputsPassedIn = true;
+		}
+		
+		int numReaders[] = new int[numWires];
+		int numOutputs[] = new int[numWires];
+		for (int k=0; k<n; k++) {
+			Circuit c = changingCircuits[k];
+			for (int i=0; i<c.inputs.length; i++) {
+				Integer w = firstWire.get(c.inputArrays[i]);
+				if (w != null) numReaders[w + c.inputArrayIndices[i]]++;
+			}
+		}
+		for (int i=0; i<outputs.length; i++) {
+			Integer w = firstWire.get(outputArrays[i]);
+			if (w != null) numOutputs[w + outputArrayIndices[i]]++;
+		}
+		wireReaders = new int[numWires][];
+		wireReaderInputs = new int[numWires][];
+		wireOutputs = new int[numWires][];
+		for (int w=0; w<numWires; w++) {
+			wireReaders[w] = new int[numReaders[w]];
+			wireReaderInputs[w] = new int[numReaders[w]];
+			wireOutputs[w] = new int[numOutputs[w]];
+			numReaders[w] = numOutputs[w] = 0;
+		}
+		for (int k=0; k<n; k++) {
+			Circuit c = changingCircuits[k];
+			for (int i=0; i<c.inputs.length; i++) {
+				Integer w = firstWire.get(c.inputArrays[i]);
+				if (w == null) continue;
+				int wire = w + c.inputArrayIndices[i];
+				wireReaders[wire][numReaders[wire]] = k;
+				wireReaderInputs[wire][numReaders[wire]++] = i;
+			}
+		}
+		for (int i=0; i<outputs.length; i++) {
+			Integer w = firstWire.get(outputArrays[i]);
+			if (w == null) continue;
+			int wire = w + outputArrayIndices[i];
+			wireOutputs[wire][numOutputs[wire]++] = i;
+		}
+		
+		alwaysChanged = new int[stateful.size()];
+		for (int i=0; i<alwaysChanged.length; i++) alwaysChanged[i] = stateful.get(i);
+		lastOutputs = new int[maxOutputs];
+		lastInputs = inputs.clone();
+		changedCircuits = new BitSet(n);
+		changedCircuits.set(0, n);
+		changedOutputs = new BitSet(outputs.length);
+	}
+	
+	void clearReaders()
+	{
+		changingCircuits = null;
+		firstOutputWire = null;
+		wireReaders = wireReaderInputs = wireOutputs = null;
+		alwaysChanged = lastOutputs = lastInputs = null;
+		changedCircuits = changedOutputs = null;
+	}
+	
+	void simulatePropagationDelay()
+	{
+		simulatePropagationDelay(false);
+	}
+	
+	// With unitDelay set, each leaf cell has a delay of 1 (logic depth)
+	void simulatePropagationDelay(boolean unitDelay)
+	{
+		clearReaders(); // wires now hold delays
+		
+		// A replaced subcircuit keeps its delay from each input to each output
+		if (primitive != null && primitive.inputDelay != null && !unitDelay) {
+			primitive.propagateDelays(inputs, outputs);
+		}
+		// If we have a truth table, use tabular propagation delay from input file
+		else if (internalCircuits.size() == 0) {
+			int maxInputProp = 0;
+			for (int i=0; i<inputs.length; i++) {
+				if (inputs[i] > maxInputProp) maxInputProp = inputs[i];
+			}
+			for (int i=0; i<outputs.length; i++) {
+				if (propagationDelay != null && !unitDelay) {
+					outputs[i] = propagationDelay[i] + maxInputProp;
+				}
+				else {
+					outputs[i] = 1 + maxInputProp;
+				}
+			}
+		}
+		// Otherwise simulate the delay of the internal circuits
+		else {
+			for (int i=0; i<internalCircuits.size(); i++) {
+				Circuit c = internalCircuits.get(i);
+				c.gatherInputs();
+				c.simulatePropagationDelay(unitDelay);
+			}
+			for (int i=0; i<outputs.length; i++) {
+				outputs[i] = outputArrays[i][outputArrayIndices[i]];
+			}
+		}
+	}
+	
+	//---------------------------------------------------------------------//
+	// OUTPUT SELECTION FUNCTIONS
+	//---------------------------------------------------------------------//
+	
+	// Compute only the named outputs, for example "o31" or "o[0:3],c".
+	// Subcircuits outside their fan-in cone are no longer simulated.
+	void selectOutputs(String names)
+	{
+		boolean selected[] = new boolean[outputs.length];
+		scan = new Scanner(names);
+		scan.useDelimiter("[ ,;\t\n\r]");
+		String token;
+		while ((token=getToken()) != null) {
+			int i = getOutputIndex(token);
+			if (i < 0) {
+				throw new CircuitException("Circuit " + type + " has no output '"
+					+ token + "'.");
+			}
+			selected[i] = true;
+		}
+		selectOutputs(selected);
+	}
+	
+	boolean isSelected(int output)
+	{
+		return selectedOutputs == null || selectedOutputs[output];
+	}
+	
+	// Select the outputs to compute (null for all).  Returns the inputs
+	// that the selected outputs depend on.
+	boolean[] selectOutputs(boolean selected[])
+	{
+		selectedOutputs = selected;
+		activeCircuits = null;
+		clearReaders();
+		boolean needed[] = new boolean[inputs.length];
+		
+		// A table or primitive needs every input for any of its outputs
+		if (primitive != null || truthTable != null || stateTable != null ||
+			internalCircuits.size() == 0) {
+			boolean any = false;
+			for (int i=0; i<outputs.length; i++) any |= isSelected(i);
+			Arrays.fill(needed, any);
+			return needed;
+		}
+		if (selected == null) {
+			for (int i=0; i<internalCircuits.size(); i++) {
+				internalCircuits.get(i).selectOutputs((boolean[])null);
+			}
+			Arrays.fill(needed, true);
+			return needed;
+		}
+		
+		// Outputs of each subcircuit needed by the selected outputs
+		int n = internalCircuits.size();
+		IdentityHashMap<int[], Integer> owner = new IdentityHashMap<>();
+		boolean childSelected[][] = new boolean[n][];
+		boolean dirty[] = new boolean[n];
+		for (int k=0; k<n; k++) {
+			Circuit c = internalCircuits.get(k);
+			owner.put(c.outputs, k);
+			childSelected[k] = new boolean[c.outputs.length];
+		}
+		for (int i=0; i<outputs.length; i++) {
+			if (selected[i]) {
+				markNeeded(outputArrays[i], outputArrayIndices[i], owner,
+					childSelected, dirty, needed);
+			}
+		}
+		
+		// Walk back through the subcircuits until nothing changes.  They
+		// are listed in evaluation order, so without feedback one pass
+		// from the last to the first is enough.
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int k=n-1; k>=0; k--) {
+				if (!dirty[k]) continue;
+				dirty[k] = false;
+				changed = true;
+				Circuit c = internalCircuits.get(k);
+				boolean childNeeded[] = c.selectOutputs(childSelected[k]);
+				for (int j=0; j<childNeeded.length; j++) {
+					if (childNeeded[j] && c.inputArrays[j] != null) {
+						markNeeded(c.inputArrays[j], c.inputArrayIndices[j], owner,
+							childSelected, dirty, needed);
+					}
+				}
+			}
+		}
+		
+		activeCircuits = new ArrayList<Circuit>();
+		for (int k=0; k<n; k++) {
+			boolean any = false;
+			for (int j=0; j<childSelected[k].length; j++) any |= childSelected[k][j];
+			if (any) activeCircuits.add(internalCircuits.get(k));
+		}
+		return needed;
+	}
+	
+	void markNeeded(int arr[], int idx, IdentityHashMap<int[], Integer> owner,
+		boolean childSelected[][], boolean dirty[], boolean needed[])
+	{
+		if (arr == inputs) {
+			needed[idx] = true;
+			return;
+		}
+		Integer k = owner.get(arr);
+		if (k != null && !childSelected[k][idx]) {
+			childSelected[k][idx] = true;
+			dirty[k] = true;
+		}
+	}
+	
+	//---------------------------------------------------------------------//
+	// TEST FUNCTIONS
+	//---------------------------------------------------------------------//
+	
+	// Read the next test case from the open test file into in[] and
+	// desiredOutputs[].  Returns false at the end of the file.
+	boolean readTestCase(String fileName, int in[], int desiredOutputs[])
+	{
+		String token;
+		int numInputs = in.length;
+		int numOutputs = desiredOutputs.length;
+		
+		while ((token=getToken()) != null) {
+			if (token.equals("testCase")) {
+				int inCount = 0;
+				String s;
+				while (inCount < numInputs && (s=getToken()) != null) {
+					for (int i=0; i<s.length(); i++) {
+						char c = s.charAt(i);
+						if (c == '0' || c == '1') {
+							in[inCount] = c - '0';
+							inCount++;
+						}
+					}
+				}
+				int outCount = 0;
+				while (outCount < numOutputs && ((s=getToken()) != null)) {
+					for (int i=0; i<s.length(); i++) {
+						char c = s.charAt(i);
+						if (c == '0' || c == '1') {
+							desiredOutputs[outCount] = c - '0';
+							outCount++;
+						}
+					}
+				}
+				if (inCount != numInputs || outCount != numOutputs) {
+					error("Incomplete test case in test file " + fileName + ".txt");
+				}
+				return true;
+			}
+			else if (token.equals("}")) {
+				continue;
+			}
+			else {
+				throw new CircuitException("Error in test file '" + fileName +
+					".txt': Unknown command '" + token + "'.");
+			}
+		}
+		return false;
+	}
+	
+	void printTestCaseDescription()
+	{
+		for (int i=0; i<library.testCaseDescription.size(); i++) {
+			System.out.println("##" + library.testCaseDescription.get(i));
+		}
+		library.testCaseDescription.clear();
+	}
+	
+	void runTestCase(String fileName)
+	{
+		openCircuitFile(fileName); // Open the test file
+		int numInputs = inputs.length;
+		int numOutputs = outputs.length;
+		int desiredOutputs[] = new int[numOutputs];
+		int totalErrors = 0;
+		
+		System.out.println("\nRunning test cases from " + fileName + ".txt\n");
+		printInputOutputNames();
+		library.testCaseDescription.clear();
+		
+		while (readTestCase(fileName, inputs, desiredOutputs)) {
+			simulate();
+			
+			System.out.println();
+			printTestCaseDescription();
+
+			System.out.print("Input  : ");
+			for (int i=0; i<numInputs; i++) {
+				if (i%4==0) System.out.print(" ");
+				if (i%32==0 && i>0) System.out.print("\n         ");
+				System.out.print(inputs[i]);
+			}
+			System.out.print("\nDesired: ");
+			for (int i=0; i<numOutputs; i++) {
+				if (i%4==0) System.out.print(" ");
+				System.out.print(desiredOutputs[i]);
+			}
+			System.out.print("\nActual : ");
+			for (int i=0; i<numOutputs; i++) {
+				if (i%4==0) System.out.print(" ");
+				if (isSelected(i)) System.out.print(outputs[i]);
+				else System.out.print("-");
+			}
+			
+			// Outputs that were not computed are not checked
+			for (int i=0; i<numOutputs; i++) {
+				if (!isSelected(i)) desiredOutputs[i] = outputs[i];
+			}
+			int numErrors = 0;
+			for (int i=0; i<numOutputs; i++) {
+				if (outputs[i] != desiredOutputs[i]) numErrors++;
+			}
+			totalErrors += numErrors;
+			if (numErrors > 0) {
+				System.out.print("\nErrors : ");
+				for (int i=0; i<numOutputs; i++) {
+					if (i%4==0) System.out.print(" ");
+					if (outputs[i] != desiredOutputs[i]) System.out.print("^");
+					else System.out.print(" ");
+				}
+				System.out.print("\nError Names: ");
+				for (int i=0; i<numOutputs; i++) {
+					if (outputs[i] != desiredOutputs[i]) {
+						System.out.print(outputNames.get(i) + " ");
+					}
+				}
+			}
+			System.out.println("");
+		}
+		if (totalErrors > 0) {
+			System.out.println("\n***** " + totalErrors + " ERRORS FOUND. *****");
+		}
+		else {
+			System.out.println("\n***** ALL TEST CASES PASSED. *****");
+		}
+	}
+	
+	void printTruthTable(int maxRows)
+	{
+		int numInputs = inputNames.size();
+		int numOutputs = outputNames.size();
+		int rowsToPrint = (int)(Math.pow(2, numInputs));
+		if (rowsToPrint > maxRows || numInputs >= 32) rowsToPrint = maxRows;
+		
+		System.out.println("\nTRUTH TABLE:");
+		printInputOutputNames();
+		
+		for (int r=0; r<rowsToPrint; r++) {
+			for (int i=0; i<numInputs; i++) {
+				int sh = (numInputs-1-i);
+				inputs[i] = (r>>sh) & 0x1;
+			}
+			simulate();
+			if (r%8 == 0) System.out.println();
+			printInputOutput();
+		}
+	}
+	
+	void printInputOutputNames() 
+	{
+		int numInputs = inputNames.size();
+		int numOutputs = outputNames.size();
+		
+		for (int i=0; i<numInputs; i++) {
+			System.out.print(inputNames.get(i) + " ");
+		}
+		System.out.print("| ");
+		for (int i=0; i<numOutputs; i++) {
+			System.out.print(outputNames.get(i) + " ");
+		}
+		System.out.println("");
+	}
+	
+	void printInputOutput()
+	{
+		int numInputs = inputNames.size();
+		int numOutputs = outputNames.size();
+		
+		for (int i=0; i<numInputs; i++) {
+			System.out.print(inputs[i]);
+			if (i%4==3) System.out.print(" ");
+		}
+		System.out.print(" | ");
+		for (int i=0; i<numOutputs; i++) {
+			if (isSelected(i)) System.out.print(outputs[i]);
+			else System.out.print("-");
+			if (i%4==3) System.out.print(" ");
+		}
+		System.out.println("");
+	}
+	
+	//---------------------------------------------------------------------//
+	// PARSING FUNCTIONS
+	//---------------------------------------------------------------------//
+	
+	void error(String s)
+	{
+		throw new CircuitException("Error in file '" + type + ".txt'!\n  " + s);
+	}
+	
+	void openCircuitFile(String circuitType)
+	{
+		String circuitFileText = library.getFileText(circuitType + ".txt");
+		scan = new Scanner(circuitFileText);
+		scan.useDelimiter("[ ,{;=\t\n\r]"); // : and [] treated separately
+	}
+	
+	String getRepeatToken()
+	{
+		// Handle simple repeats case 0[4] for example
+		if (repeatTimes > 0) {
+			String token = repeatHead;
+			repeatTimes--;
+			if (repeatTimes == 0) {
+				repeatHead = null;
+				repeatTail = null;
+			}
+			return token;
+		}
+
+		// Handle changing value cases a[1:7] for example 
+		String token = repeatHead + repeatVal + repeatTail;
+		if (repeatVal > repeatEnd) {
+			repeatVal--;
+		} 
+		else if (repeatVal < repeatEnd) {
+			repeatVal++;
+		} 
+		else {
+			repeatHead = null;
+			repeatTail = null;
+		}
+		//System.out.println(token);
+		return token;
+	}
+	
+	void initRepeatToken(String s)
+	{
+		try {
+			if (!s.contains(":")) { // 0[7] case
+				String[] tokens = s.split("[\\[\\]:]+");
+				repeatHead = tokens[0];
+				repeatTail = "";
+				repeatTimes = Integer.parseInt(tokens[1]);
+				return;
+			}
+			else if (s.charAt(0) == '[') { // [3:4]X case
+				String[] tokens = s.substring(1).split("[\\[\\]:]+"); // cut off initial [
+				repeatHead = "";
+				repeatStart = Integer.parseInt(tokens[0]);
+				repeatEnd = Integer.parseInt(tokens[1]);
+				repeatTail = tokens[2];
+				repeatVal = repeatStart;
+				return;
+			} else { // X[3:4], X[3:4]Y cases
+				String[] tokens = s.split("[\\[\\]:]+");
+				repeatHead = tokens[0];
+				repeatStart = Integer.parseInt(tokens[1]);
+				repeatEnd = Integer.parseInt(tokens[2]);
+				if (tokens.length > 3) repeatTail = tokens[3];
+				else repeatTail = "";
+				repeatVal = repeatStart;
+				return;
+			}
+		}
+		catch (Exception ex) {
+			ex.printStackTrace();
+		}
+		
+		error("Illegal repeater: '" + s + "'.");	
+	}
+
+	String getToken()
+	{
+		String t = getToken2();
+		//System.out.println(t);
+		return t;
+	}
+	
+	String getToken2()
+	{
+		if (repeatHead != null) {
+			return getRepeatToken();
+		}
+		else if (extraToken != null) {
+			String t = extraToken;
+			extraToken = null;
+			return t;
+		}
+		while (scan.hasNext() || extraToken != null) {
+			String token = scan.next();
+			if (token.length() == 0) {
+				continue;
+			}
+			else if (token.startsWith("##")) {
+				library.testCaseDescription.add(scan.nextLine());
+			}
+			else if (token.startsWith("#")) {
+				scan.nextLine();
+			}
+			else if (token.equals("}")) {
+				return token;
+			}
+			else if (token.endsWith("}")) {
+				extraToken = "}";
+				String t = token.substring(0, token.length()-1);
+				if (t.contains("[")) {
+					initRepeatToken(t);
+					return getRepeatToken();
+				} else {
+					return t;
+				}
+			}
+			else if (token.contains("[")) {
+				initRepeatToken(token);
+				return getRepeatToken();
+			}
+			else {
+				return token;
+			}
+		}
+		return null;
+	}
+	
+	void ungetToken(String token) 
+	{
+		extraToken = token; // currently can only unget 1 token
+	}
+	
+	void skipStatement()
+	{
+		String token;
+		while ((token=getToken()) != null) {
+			if (token.equals("}")) return;
+		}
+		error("Missing } at end of file.");
+	}
+	
+	boolean isKeyword(String s)
+	{
+		for (int i=0; i<keywords.length; i++) {
+			if (keywords[i].equals(s)) return true;
+		}
+		return false;
+	}
+	
+	void loadStringList(ArrayList<String> stringList)
+	{
+		String token;
+		while ((token=getToken()) != null) {
+			if (isKeyword(token)) {
+				ungetToken(token);
+				break;
+			}
+			if (token.equals("}")) break;
+			stringList.add(token);
+		}
+	}
+	
+	boolean getArrayAndIndex(ArrayIndex ai, String str)
+	{
+		ai.arr = null;
+		ai.idx = -1;
+		
+		// See if we are an input
+		int index = inputNames.indexOf(str);
+		if (index >= 0) {
+			ai.arr = inputs;
+			ai.idx = index;
+			return true;
+		}
+		
+		// Try to find an output of a subunit
+		int dotIndex = str.indexOf('.');
+		String strSuffix = null; // Whatever is past the dot
+		if (dotIndex>0) strSuffix = str.substring(dotIndex+1);
+		
+		for (int j=0; j<internalCircuits.size(); j++) {
+			Circuit d = internalCircuits.get(j);
+			if (str.equals(d.name) || str.startsWith(d.name+".")) {
+				ai.arr = d.outputs;
+				if (strSuffix == null) { // no suffix, so use index 0
+					if (d.outputNames.size() > 1) {
+						error("Unqualified circuit output for circuit "
+							+ "with multiple outputs: '" + str + "'");
+					}
+					ai.idx = 0; 
+					return true;
+				}
+				else {
+					// First check for a name
+					ai.idx = d.outputNames.indexOf(strSuffix);
+					if (ai.idx >= 0) {
+						return true;
+					}
+					try {
+						ai.idx = Integer.parseInt(strSuffix);
+						return true;
+					} 
+					catch (Exception ex) {
+						return false;
+					}
+				}
+			}
+			//
+		}
+		return false;
+	}
+	
+	void loadSubCircuit(boolean inputsOnly, String indent)
+	{
+		ArrayIndex ai = new ArrayIndex();
+		String subType = getToken();
+		String subName = getToken();
+		Circuit c = null;
+		for (int i=0; i<inputNames.size(); i++) {
+			String inputName = inputNames.get(i);
+			if (inputName.equals(subName)) {
+				error("Subcircuit has same name as input: " + subName);
+			}
+		}
+		for (int i=0; i<internalCircuits.size(); i++) {
+			Circuit ci = internalCircuits.get(i);
+			if (ci.name.equals(subName)) {
+				if (!inputsOnly) {
+					error("Duplicate subcircuit name: " + subName);
+				}
+				c = ci;
+				break;
+			}
+		}
+		if (c == null) {
+			c = library.newInstance(subType);
+			c.name = subName;
+			internalCircuits.add(c);
+			if (!prototype) library.countLoad(c.numInstances);
+		}
+		
+		// connect up inputs to internal circuits
+		for (int i=0; i<c.inputNames.size(); i++) {
+			String inName = getToken();
+			if (inName.equals("}")) {
+				error("Not enough inputs for " + subType + " " + subName);
+			}
+			//
+			if (inName.equals("...")) {
+				isCombinatorial = false;
+				break;
+			}
+			else if (getArrayAndIndex(ai, inName)) {
+				c.inputArrays[i] = ai.arr;
+				c.inputArrayIndices[i] = ai.idx;
+			}
+			else if (inName.equals("0") || inName.equals("1")) {
+				c.inputs[i] = Integer.parseInt(inName);
+			}
+			else {
+				error("Could not find input '" + 
+					inName + "' for " + subType + " " + subName);
+			}
+		}
+
+		String t = getToken();
+		if (!t.equals("}")) {
+			error("Too many inputs for " + subType + " " + subName);
+		}
+	}
+	
+	void loadOutputs()
+	{
+		ArrayIndex ai = new ArrayIndex();
+		
+		for (int i=0; i<outputNames.size(); i++) {
+			String outputName = getToken();
+			if (outputName==null || outputName.equals("}")) {
+				error("Incomplete circuit outputs.");
+			}
+			
+			if (getArrayAndIndex(ai, outputName)) {
+				outputArrays[i] = ai.arr;
+				outputArrayIndices[i] = ai.idx;
+			}
+			else {
+				error("Could not find output '" + outputName);
+			}
+		}
+
+		String t = getToken();
+		if (!t.equals("}")) {
+			error("too many outputs for circuit.");
+		}
+	}
+	
+	void loadTruthTable()
+	{
+		String token;
+		int numInputs = inputNames.size();
+		int numOutputs = outputNames.size();
+		int numRows = (int)(Math.pow(2, numInputs));
+		truthTable = new int[numRows];
+		
+		for (int i=0; i<numRows; i++) {
+			int index=0;
+			int j=0;
+			while (j<numInputs) {
+				token = getToken();
+				if (token == null) {
+					error("Could not load truth table.");
+				}
+				for (int k=0; k<token.length(); k++) {
+					if (token.charAt(k) == '1') {
+						index |= (1<<j);
+						j++;
+					}
+					else if (token.charAt(k) == '0') {
+						j++;
+					}
+				}
+			}
+			//
+			int value=0;
+			j=0;
+			while (j<numOutputs) {
+				token = getToken();
+				if (token == null) {
+					error("Could not load truth table");
+				}
+				for (int k=0; k<token.length(); k++) {
+					if (token.charAt(k) == '1') {
+						value |= (1<<j);
+						j++;
+					}
+					else if (token.charAt(k) == '0') {
+						j++;
+					}
+				}
+			}
+			//
+			truthTable[index] = value;
+			//System.out.println(value);
+		}
+		while (true) {
+			token = getToken();
+			if (token == null) 
+				error("Missing } after truth table.");
+			if (token.equals("}")) break;
+		}
+	}
+	
+	boolean loadFromFile(String circuitType, String indent)
+	{
+		//System.out.println(indent + circuitType);
+		//System.out.print(".");
+		//System.out.print("\rLoading: " + circuitType + "        ");
+		if (!prototype) library.countLoad(1); // prototypes are not counted
+		
+		type = circuitType;
+		openCircuitFile(circuitType);
+		String token;
+		boolean outputsLoaded = false;
+
+		while ((token=getToken()) != null) {
+			//System.out.println(token);
+			if (token.equals("inputNames")) {
+				loadStringList(inputNames);
+				inputArrays = new int[inputNames.size()][];
+				inputArrayIndices = new int[inputNames.size()];
+				inputs = new int[inputNames.size()];
+			}
+			else if (token.equals("outputNames")) {
+				loadStringList(outputNames);
+				outputArrays = new int[outputNames.size()][];
+				outputArrayIndices = new int[outputNames.size()];
+				outputs = new int[outputNames.size()];
+			}
+			else if (token.equals("circuit")) {
+				if (inputNames.size()==0 || outputNames.size()==0) {
+					error("inputNames and outputNames must come before circuits."); 
+				}
+				loadSubCircuit(false, indent);
+			}
+			else if (token.equals("circuitInputs")) {
+				loadSubCircuit(true, indent);
+			}
+			else if (token.equals("outputs")) {
+				outputsLoaded = true;
+				loadOutputs();
+			}
+			else if (token.equals("truthTable")) {
+				outputsLoaded = true;
+				loadTruthTable();
+			}
+			else if (token.equals("propagationDelay")) {
+				ArrayList<String> props = new ArrayList<String>();
+				loadStringList(props);
+				propagationDelay = new int[outputNames.size()];
+				for (int i=0; i<propagationDelay.length; i++) {
+					propagationDelay[i] = Integer.parseInt(props.get(i));
+				}
+			}
+			else {
+				error("Unkown command: '" + token + "'");
+			}
+		}
+
+		if (!outputsLoaded) error("'outputs' or 'truthTable' required.");
+
+		scan.close();
+		scan = null;
+		extraToken = null;
+		
+		if (library.calculateTables && isCombinatorial && truthTable == null
+				&& inputs.length <= MAX_TRUTH_TABLE_INPUTS 
+				&& outputs.length <= MAX_TRUTH_TABLE_OUTPUTS) {
+			calculateTruthTable();
+		}
+		if (library.calculateTables && truthTable == null) {
+			calculateStateTable();
+		}
+		
+		numInstances = 1;
+		for (int i=0; i<internalCircuits.size(); i++) {
+			numInstances += internalCircuits.get(i).numInstances;
+		}
+		
+		// Every subcircuit has been copied, so the prototypes can go
+		if (!prototype) library.prototypes.clear();
+		return false;
+	}
+	
+	// A new instance of this circuit, with the same wiring and wire values.
+	// Names, tables and primitives do not change, so they are shared.
+	Circuit copy()
+	{
+		Circuit c = new Circuit(library);
+		c.type = type;
+		c.inputNames = inputNames;
+		c.outputNames = outputNames;
+		c.isCombinatorial = isCombinatorial;
+		c.truthTable = truthTable;
+		c.primitive = primitive;
+		c.matchedPrimitive = matchedPrimitive;
+		c.stateTable = stateTable;
+		c.stateBits = stateBits;
+		c.state = state;
+		c.name = name;
+		c.propagationDelay = propagationDelay;
+		c.numInstances = numInstances;
+		c.inputs = inputs.clone();
+		c.inputArrays = new int[inputs.length][];
+		c.inputArrayIndices = inputArrayIndices.clone(); // set by the parent
+		c.outputs = outputs.clone();
+		c.outputArrays = new int[outputs.length][];
+		c.outputArrayIndices = outputArrayIndices;
+		if (internalCircuits.size() == 0) return c;
+		
+		// Point the copied wiring at the copied arrays
+		IdentityHashMap<int[], int[]> arrays = new IdentityHashMap<>();
+		arrays.put(inputs, c.inputs);
+		c.internalCircuits = new ArrayList<Circuit>(internalCircuits.size());
+		for (int k=0; k<internalCircuits.size(); k++) {
+			Circuit d = internalCircuits.get(k);
+			Circuit e = d.copy();
+			c.internalCircuits.add(e);
+			arrays.put(d.outputs, e.outputs);
+		}
+		for (int k=0; k<internalCircuits.size(); k++) {
+			Circuit d = internalCircuits.get(k);
+			Circuit e = c.internalCircuits.get(k);
+			for (int i=0; i<d.inputs.length; i++) {
+				if (d.inputArrays[i] != null) e.inputArrays[i] = arrays.get(d.inputArrays[i]);
+			}
+		}
+		for (int i=0; i<outputs.length; i++) {
+			if (outputArrays[i] != null) c.outputArrays[i] = arrays.get(outputArrays[i]);
+		}
+		return c;
+	}
+}
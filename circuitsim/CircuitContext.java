@@ -0,0 +1,84 @@
+// CircuitContext.java
+// The wire values for one simulation of a CompiledCircuit.  A context
+// must only be used by one thread at a time, but any number of contexts
+// can simulate the same compiled circuit concurrently.
+
+package circuitsim;
+
+public final class CircuitContext
+{
+	final CompiledCircuit circuit;
+	final int wires[];
+	final int states[];         // state of each STATE cell
+
+	CircuitContext(CompiledCircuit circuit)
+	{
+		this.circuit = circuit;
+		wires = circuit.initialWires.clone();
+		states = circuit.initialStates.clone();
+	}
+
+	public CompiledCircuit getCircuit() { return circuit; }
+
+	// Return every wire and state to its value before the first simulation
+	public void reset()
+	{
+		System.arraycopy(circuit.initialWires, 0, wires, 0, wires.length);
+		System.arraycopy(circuit.initialStates, 0, states, 0, states.length);
+	}
+
+	// Simulate the circuit on in[] (one 0 or 1 per input), storing
+	// one 0 or 1 per output in out[]
+	public void simulate(int in[], int out[])
+	{
+		simulate(in, 0, out, 0);
+	}
+
+	public void simulate(int in[], int inOffset, int out[], int outOffset)
+	{
+		int inputWires[] = circuit.inputWires;
+		int outputWires[] = circuit.outputWires;
+		if (inOffset < 0 || inOffset + inputWires.length > in.length
+				|| outOffset < 0 || outOffset + outputWires.length > out.length) {
+			throw new IllegalArgumentException("Buffers too small for circuit "
+				+ circuit.type + ": " + inputWires.length + " inputs, "
+				+ outputWires.length + " outputs.");
+		}
+
+		int w[] = wires;
+		for (int i=0; i<inputWires.length; i++) {
+			w[inputWires[i]] = in[inOffset+i] & 0x1;
+		}
+
+		Cell cells[] = circuit.cells;
+		for (int k=0; k<cells.length; k++) {
+			Cell cell = cells[k];
+			int cin[] = cell.in;
+			int cout[] = cell.out;
+			if (cell.kind == Cell.COPY) {
+				for (int i=0; i<cin.length; i++) w[cout[i]] = w[cin[i]];
+			}
+			else if (cell.kind == Cell.TABLE) {
+				int row = 0;
+				for (int i=0; i<cin.length; i++) row |= w[cin[i]] << i;
+				int val = cell.truthTable[row];
+				for (int i=0; i<cout.length; i++) w[cout[i]] = (val >> i) & 0x1;
+			}
+			else if (cell.kind == Cell.STATE) {
+				int sh = cell.stateBits;
+				int row = states[cell.stateIndex];
+				for (int i=0; i<cin.length; i++) row |= w[cin[i]] << (sh + i);
+				int val = cell.truthTable[row];
+				states[cell.stateIndex] = val & ((1 << sh) - 1);
+				for (int i=0; i<cout.length; i++) w[cout[i]] = (val >> (sh + i)) & 0x1;
+			}
+			else {
+				cell.primitive.simulate(w, cin, w, cout);
+			}
+		}
+
+		for (int i=0; i<outputWires.length; i++) {
+			out[outOffset+i] = w[outputWires[i]];
+		}
+	}
+}
@@ -0,0 +1,14 @@
+// CircuitException.java
+// Thrown when a circuit or test file cannot be loaded or run.
+
+package circuitsim;
+
+public class CircuitException extends RuntimeException
+{
+	static final long serialVersionUID = 1L;
+
+	public CircuitException(String message)
+	{
+		super(message);
+	}
+}
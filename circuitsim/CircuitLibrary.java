@@ -0,0 +1,180 @@
+// CircuitLibrary.java
+// Circuit file text and circuit prototypes shared by the circuits of one
+// load.  Each circuit type is parsed once into a prototype, which is
+// copied for every instance of the type.  Each load gets its own library,
+// so separate loads do not share any state.  Within a load, preload() may
+// build prototypes from several threads at once.
+
+package circuitsim;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class CircuitLibrary
+{
+	String directory = "";     // directory containing the circuit files
+	boolean verbose = true;    // print loading progress
+	boolean usePrimitives = true; // replace recognized circuits with primitives
+	boolean samplePrimitives = false; // also match wide circuits by sampling
+	boolean calculateTables = true; // collapse subcircuits into tables
+	int loadCount = 0;
+
+	Map<String, String> circuitFiles = syncMap();
+	Map<String, Circuit> prototypes = new ConcurrentHashMap<>();
+	Set<String> loadingTypes = Collections.synchronizedSet(new HashSet<String>());
+	List<String> testCaseDescription =
+		Collections.synchronizedList(new ArrayList<String>());
+
+	static <T> Map<String, T> syncMap()
+	{
+		return Collections.synchronizedMap(new HashMap<String, T>());
+	}
+
+	CircuitLibrary() {}
+	CircuitLibrary(String directory) { this.directory = directory; }
+
+	// Supply the text of a circuit type instead of reading it from a file
+	void addSource(String circuitType, String text)
+	{
+		circuitFiles.put(circuitType + ".txt", text);
+	}
+
+	String getFileText(String fileName)
+	{
+		String text = circuitFiles.get(fileName);
+		if (text != null) return text;
+		try {
+			File file = new File(directory, fileName);
+			if (directory.length() == 0) file = new File(fileName);
+			Scanner scan = new Scanner(file);
+			scan.useDelimiter("\\Z"); // end of file marker
+			text = scan.hasNext() ? scan.next() : "";
+			scan.close();
+		} catch (Exception ex) {
+			throw new CircuitException("Error opening file '" + fileName + "'.");
+		}
+		circuitFiles.put(fileName, text);
+		return text;
+	}
+
+	synchronized void countLoad(int count)
+	{
+		loadCount += count;
+		if (verbose) System.out.print("\rCircuits loaded: " + (loadCount-1) + "  ");
+	}
+
+	//---------------------------------------------------------------------//
+	// Concurrent preloading
+	//---------------------------------------------------------------------//
+
+	// A new instance of circuitType, copied from its prototype
+	Circuit newInstance(String circuitType)
+	{
+		return getPrototype(circuitType).copy();
+	}
+
+	// The prototype of a type is parsed once, with its tables calculated and
+	// its primitive recognized.  Prototypes are only used as subcircuits,
+	// so the top-level circuit is never replaced by a primitive.
+	Circuit getPrototype(String circuitType)
+	{
+		Circuit p = prototypes.get(circuitType);
+		if (p != null) return p;
+		if (!loadingTypes.add(circuitType)) {
+			throw new CircuitException("Error in file '" + circuitType
+				+ ".txt'!\n  Circuit contains itself.");
+		}
+		try {
+			p = new Circuit(this);
+			p.prototype = true;
+			p.loadFromFile(circuitType, "");
+			p.recognizePrimitive();
+		}
+		finally {
+			loadingTypes.remove(circuitType);
+		}
+		Circuit q = prototypes.putIfAbsent(circuitType, p);
+		return (q != null) ? q : p;
+	}
+
+	// Read every circuit file used by circuitType, then build the prototype
+	// of each type below it, bottom up.  The types in each wave only use
+	// types from earlier waves, so their files are parsed and their tables
+	// calculated concurrently on the fork-join pool.  Loading circuitType
+	// afterwards only parses its own file, and copies the prototypes.
+	void preload(String circuitType)
+	{
+		// Find the subcircuit types of each type, reading files in parallel
+		Map<String, List<String>> subTypes = new ConcurrentHashMap<>();
+		List<String> frontier = new ArrayList<String>();
+		frontier.add(circuitType);
+		while (frontier.size() > 0) {
+			frontier.parallelStream().forEach(t -> subTypes.put(t, scanSubTypes(t)));
+			LinkedHashSet<String> next = new LinkedHashSet<String>();
+			for (int i=0; i<frontier.size(); i++) {
+				List<String> list = subTypes.get(frontier.get(i));
+				for (int j=0; j<list.size(); j++) {
+					if (!subTypes.containsKey(list.get(j))) next.add(list.get(j));
+				}
+			}
+			frontier = new ArrayList<String>(next);
+		}
+
+		// Group types into waves by their height above the leaf types
+		HashMap<String, Integer> heights = new HashMap<>();
+		int maxHeight = getHeight(circuitType, subTypes, heights, new HashSet<String>());
+		ArrayList<ArrayList<String>> waves = new ArrayList<>();
+		for (int h=0; h<=maxHeight; h++) waves.add(new ArrayList<String>());
+		for (Map.Entry<String, Integer> e : heights.entrySet()) {
+			waves.get(e.getValue()).add(e.getKey());
+		}
+
+		// circuitType is the only type in the last wave, and is loaded later
+		for (int h=0; h<maxHeight; h++) {
+			waves.get(h).parallelStream().forEach(t -> getPrototype(t));
+		}
+	}
+
+	// Types used by "circuit" statements in a circuit file
+	List<String> scanSubTypes(String circuitType)
+	{
+		String text = getFileText(circuitType + ".txt");
+		ArrayList<String> list = new ArrayList<String>();
+		String lines[] = text.split("\n");
+		String prev = "";
+		for (int i=0; i<lines.length; i++) {
+			String line = lines[i];
+			int comment = line.indexOf('#');
+			if (comment >= 0) line = line.substring(0, comment);
+			String tokens[] = line.split("[ ,{};=\t\r]+");
+			for (int j=0; j<tokens.length; j++) {
+				if (tokens[j].length() == 0) continue;
+				if (prev.equals("circuit") && !list.contains(tokens[j])) {
+					list.add(tokens[j]);
+				}
+				prev = tokens[j];
+			}
+		}
+		return list;
+	}
+
+	int getHeight(String circuitType, Map<String, List<String>> subTypes,
+		HashMap<String, Integer> heights, HashSet<String> visiting)
+	{
+		Integer h = heights.get(circuitType);
+		if (h != null) return h;
+		if (!visiting.add(circuitType)) {
+			throw new CircuitException("Error in file '" + circuitType
+				+ ".txt'!\n  Circuit contains itself.");
+		}
+		int height = 0;
+		List<String> list = subTypes.get(circuitType);
+		for (int i=0; i<list.size(); i++) {
+			height = Math.max(height, 1 + getHeight(list.get(i), subTypes, heights, visiting));
+		}
+		visiting.remove(circuitType);
+		heights.put(circuitType, height);
+		return height;
+	}
+}
@@ -0,0 +1,163 @@
+
+// CircuitSim.java
+// by David Cline
+
+package circuitsim;
+
+// Make jar file: javac circuitsim/*.java
+//   jar cvfe CircuitSim.jar circuitsim.CircuitSim circuitsim/*.class
+
+import java.util.*;
+
+public class CircuitSim
+{
+	static final String USAGE = "Usage: circuitName [testFile | input] "
+		+ "[--outputs names] [--incremental] [--sample-primitives] "
+		+ "[--stats] [--timing] [--transport]";
+	
+	public static void main(String args[])
+	{
+		try {
+			run(args);
+		}
+		catch (CircuitException ex) {
+			System.out.println("\n" + ex.getMessage() + "\n");
+			System.exit(0);
+		}
+	}
+	
+	static void run(String args[])
+	{
+		// Pull out the options
+		boolean showStats = false;
+		boolean timing = false, transport = false;
+		boolean incremental = false, samplePrimitives = false;
+		String selectedOutputs = null;
+		ArrayList<String> argList = new ArrayList<String>();
+		for (int i=0; i<args.length; i++) {
+			if (args[i].equals("--stats")) showStats = true;
+			else if (args[i].equals("--incremental")) incremental = true;
+			else if (args[i].equals("--sample-primitives")) samplePrimitives = true;
+			else if (args[i].equals("--outputs")) {
+				if (i+1 >= args.length) {
+					throw new CircuitException("--outputs needs a list of output names.\n"
+						+ USAGE);
+				}
+				selectedOutputs = args[++i];
+			}
+			else if (args[i].equals("--timing")) timing = true;
+			else if (args[i].equals("--transport")) timing = transport = true;
+			else argList.add(args[i]);
+		}
+		args = argList.toArray(new String[argList.size()]);
+		
+		// Check to see if we have enough args
+		System.out.println();
+		if (args.length < 1) {
+			System.out.println(USAGE);
+			System.exit(0);
+		}
+		
+		// Massage the circuit name to get rid of .txt if necessary
+		String circuitName = args[0];
+		if (circuitName.endsWith(".txt")) {
+			circuitName = circuitName.substring(0,circuitName.length()-4);
+		}
+		
+		// Load the circuit (at gate level for timing and statistics, and
+		// without simulating it to calculate tables for statistics)
+		Circuit c = new Circuit();
+		if (timing || showStats) c.library.usePrimitives = false;
+		if (showStats) c.library.calculateTables = false;
+		c.library.samplePrimitives = samplePrimitives;
+		c.library.preload(circuitName);
+		c.loadFromFile(circuitName, "");
+		System.out.println("");
+		
+		// Structural statistics only, no simulation
+		if (showStats) {
+			new CircuitStats(c).print();
+			return;
+		}
+		
+		// Event-driven timing simulation
+		if (timing) {
+			TimingSimulator ts = new TimingSimulator(new CompiledCircuit(c, true));
+			ts.inertial = !transport;
+			if (args.length == 1) {
+				System.out.println("Timing simulation needs a test file or an input.");
+			}
+			else if (args[1].charAt(0) == '0' || args[1].charAt(0) == '1') {
+				readInputs(args, c.inputs);
+				ts.simulate(c.inputs, c.outputs);
+				System.out.println("");
+				ts.printStats(1);
+				c.printInputOutputNames();
+				c.printInputOutput();
+			}
+			else {
+				ts.runTestCase(c, getFileName(args[1]));
+			}
+			return;
+		}
+		
+		// Propagation delay 
+		for (int i=0; i<c.inputs.length; i++) c.inputs[i]=0;
+		c.simulatePropagationDelay();
+		System.out.print("Propagation Delays: ");
+		for (int i=0; i<c.outputs.length; i++) System.out.print(c.outputs[i] + " ");
+		System.out.println();
+		
+		// Only simulate the logic feeding the selected outputs
+		if (selectedOutputs != null) c.selectOutputs(selectedOutputs);
+		
+		// Only re-simulate the logic whose inputs change between vectors
+		if (incremental) c.setIncremental(true);
+		
+		// If there are no more arguments, print truth table lines.
+		if (args.length == 1) {
+			c.printTruthTable(1024);
+		}
+		
+		// Otherwise we have an input, run the circuit on it
+		else if (args[1].charAt(0) == '0' || args[1].charAt(0) == '1') {
+			readInputs(args, c.inputs);
+			c.simulate();
+			System.out.println("");
+			c.printInputOutputNames();
+			c.printInputOutput();
+		}
+		
+		// Otherwise we have a test file
+		else {
+			c.runTestCase(getFileName(args[1]));
+		}
+	}
+	
+	// Read input bits from the arguments after the circuit name
+	static void readInputs(String args[], int inputs[])
+	{
+		int inputNum = 0;
+		for (int argNum=1; argNum<args.length; argNum++) {
+			String arg = args[argNum];
+			for (int i=0; i<arg.length(); i++) {
+				if (inputNum >= inputs.length) break;
+				char d = arg.charAt(i);
+				if (d=='0' || d=='1') {
+					inputs[inputNum] = d - '0';
+					inputNum++;
+				}
+			}
+		}
+	}
+	
+	// Get rid of .txt if necessary
+	static String getFileName(String fileName)
+	{
+		if (fileName.endsWith(".txt")) {
+			fileName = fileName.substring(0,fileName.length()-4);
+		}
+		return fileName;
+	}
+}
+
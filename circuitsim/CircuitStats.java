@@ -0,0 +1,304 @@
+// CircuitStats.java
+// Structural statistics and memory estimates for a loaded circuit.
+// Statistics are gathered once per circuit type, without simulating.
+// The circuit should be loaded without primitives, since they hide the
+// structure they replace, and can be loaded without calculating tables:
+// which types would collapse into tables is worked out from the structure.
+
+package circuitsim;
+
+import java.util.*;
+
+class TypeStats
+{
+	String type;
+	boolean leaf;              // no subcircuits
+	boolean combinational;     // no feedback here or in any subcircuit
+	boolean hasTruthTable;     // has or would get a truth table
+	boolean sequential;        // would get a state table
+	int stateBits;             // bits of state in that table
+	boolean collapsed;         // table calculated from subcircuits
+
+	// Counts for one instance, including its subcircuits
+	long leafCells;            // cells with no subcircuits
+	long simulatedCells;       // cells evaluated to simulate the instance
+	HashMap<String, Long> typeCounts = new HashMap<>();  // instances of each type
+	HashMap<String, Long> simCounts = new HashMap<>();   // simulated instances
+
+	// Storage shared by every instance of the type
+	long truthTableBytes;
+	long nameBytes;            // input and output name lists
+
+	// Storage held by one instance, excluding its subcircuits
+	long inputArrayBytes;
+	long outputArrayBytes;
+	long instanceNameBytes;
+	long fanOut[] = new long[CircuitStats.FAN_OUT_LIMITS.length+1];
+
+	// Totals for the whole design
+	long instances;
+	long simulatedInstances;
+
+	// Cells evaluated per vector as instances of this type, and by its
+	// instances including their subcircuits
+	long getSelfCost()
+	{
+		return (leaf || collapsed) ? simulatedInstances : 0;
+	}
+
+	long getTotalCost()
+	{
+		return simulatedInstances * simulatedCells;
+	}
+
+	// Storage held by all instances of the type
+	long getNameBytes()
+	{
+		return nameBytes + instances * instanceNameBytes;
+	}
+
+	long getBytes()
+	{
+		return truthTableBytes + getNameBytes()
+			+ instances * (inputArrayBytes + outputArrayBytes);
+	}
+}
+
+public class CircuitStats
+{
+	static final int FAN_OUT_LIMITS[] = { 0, 1, 2, 4, 8, 16, 64 };
+
+	Circuit root;
+	HashMap<String, TypeStats> types = new HashMap<>();
+
+	CircuitStats(Circuit root) { this.root = root; }
+
+	//---------------------------------------------------------------------//
+	// GATHERING FUNCTIONS
+	//---------------------------------------------------------------------//
+
+	TypeStats getTypeStats(Circuit c)
+	{
+		TypeStats ts = types.get(c.type);
+		if (ts != null) return ts;
+
+		ts = new TypeStats();
+		ts.type = c.type;
+		ts.leaf = (c.internalCircuits.size() == 0);
+		ts.inputArrayBytes = 3*arrayBytes(c.inputs.length);
+		ts.outputArrayBytes = 2*arrayBytes(c.outputs.length);
+		ts.nameBytes = listBytes(c.inputNames) + listBytes(c.outputNames)
+			+ arrayBytes(c.outputs.length); // and outputArrayIndices
+		ts.instanceNameBytes = stringBytes(c.name);
+		countFanOut(c, ts.fanOut);
+
+		ts.typeCounts.put(c.type, 1L);
+		ts.simCounts.put(c.type, 1L);
+		if (ts.leaf) ts.leafCells = 1;
+		for (int i=0; i<c.internalCircuits.size(); i++) {
+			TypeStats cs = getTypeStats(c.internalCircuits.get(i));
+			ts.leafCells += cs.leafCells;
+			ts.simulatedCells += cs.simulatedCells;
+			addCounts(ts.typeCounts, cs.typeCounts);
+		}
+		predictTables(c, ts);
+		for (int i=0; i<c.internalCircuits.size() && !ts.collapsed; i++) {
+			addCounts(ts.simCounts, types.get(c.internalCircuits.get(i).type).simCounts);
+		}
+		if (ts.collapsed || ts.leaf) ts.simulatedCells = 1;
+
+		types.put(c.type, ts);
+		return ts;
+	}
+
+	// Work out whether loading would give the circuit a truth or state
+	// table, using the same limits as calculateTruthTable() and
+	// calculateStateTable(), which only depend on the structure
+	void predictTables(Circuit c, TypeStats ts)
+	{
+		int numInputs = c.inputs.length;
+		int numOutputs = c.outputs.length;
+		if (ts.leaf) {
+			ts.combinational = ts.hasTruthTable = (c.truthTable != null);
+		}
+		else {
+			ts.combinational = c.isCombinatorial;
+			for (int i=0; i<c.internalCircuits.size(); i++) {
+				ts.combinational &= types.get(c.internalCircuits.get(i).type).combinational;
+			}
+			ts.hasTruthTable = ts.combinational
+				&& numInputs <= Circuit.MAX_TRUTH_TABLE_INPUTS
+				&& numOutputs <= Circuit.MAX_TRUTH_TABLE_OUTPUTS;
+		}
+		if (ts.hasTruthTable) {
+			ts.truthTableBytes = arrayBytes(1 << numInputs);
+		}
+		else if (!ts.leaf) {
+			int numStateBits = 0;
+			for (int i=0; i<c.internalCircuits.size(); i++) {
+				TypeStats cs = types.get(c.internalCircuits.get(i).type);
+				if (!cs.hasTruthTable && !cs.sequential) return;
+				numStateBits += cs.stateBits;
+			}
+			c.findFeedback();
+			numStateBits += c.feedbackArrays.size();
+			c.feedbackArrays = null;
+			c.feedbackIndices = null;
+			if (numStateBits == 0 || numStateBits + numInputs > Circuit.MAX_TRUTH_TABLE_INPUTS
+					|| numStateBits + numOutputs > Circuit.MAX_TRUTH_TABLE_OUTPUTS-1) return;
+			ts.sequential = true;
+			ts.stateBits = numStateBits;
+			ts.truthTableBytes = arrayBytes(1 << (numStateBits + numInputs));
+		}
+		ts.collapsed = (ts.hasTruthTable || ts.sequential) && !ts.leaf;
+	}
+
+	void addCounts(HashMap<String, Long> dst, HashMap<String, Long> src)
+	{
+		for (Map.Entry<String, Long> e : src.entrySet()) {
+			Long n = dst.get(e.getKey());
+			dst.put(e.getKey(), e.getValue() + ((n == null) ? 0 : n));
+		}
+	}
+
+	// Histogram of the number of readers of each wire inside the circuit
+	void countFanOut(Circuit c, long hist[])
+	{
+		if (c.internalCircuits.size() == 0) return;
+
+		IdentityHashMap<int[], int[]> readers = new IdentityHashMap<>();
+		readers.put(c.inputs, new int[c.inputs.length]);
+		for (int i=0; i<c.internalCircuits.size(); i++) {
+			Circuit d = c.internalCircuits.get(i);
+			readers.put(d.outputs, new int[d.outputs.length]);
+		}
+		for (int i=0; i<c.internalCircuits.size(); i++) {
+			Circuit d = c.internalCircuits.get(i);
+			for (int j=0; j<d.inputs.length; j++) {
+				int n[] = readers.get(d.inputArrays[j]);
+				if (n != null) n[d.inputArrayIndices[j]]++;
+			}
+		}
+		for (int i=0; i<c.outputs.length; i++) {
+			int n[] = readers.get(c.outputArrays[i]);
+			if (n != null) n[c.outputArrayIndices[i]]++;
+		}
+		for (int[] n : readers.values()) {
+			for (int i=0; i<n.length; i++) {
+				int bin = 0;
+				while (bin < FAN_OUT_LIMITS.length && n[i] > FAN_OUT_LIMITS[bin]) bin++;
+				hist[bin]++;
+			}
+		}
+	}
+
+	//---------------------------------------------------------------------//
+	// SIZE ESTIMATES (64 bit JVM with compressed pointers)
+	//---------------------------------------------------------------------//
+
+	static long align(long n) { return (n + 7) & ~7L; }
+	static long arrayBytes(int length) { return align(16 + 4L*length); }
+
+	static long stringBytes(String s)
+	{
+		if (s == null) return 0;
+		return 24 + align(16 + s.length());
+	}
+
+	static long listBytes(ArrayList<String> list)
+	{
+		long n = 24 + arrayBytes(list.size());
+		for (int i=0; i<list.size(); i++) n += stringBytes(list.get(i));
+		return n;
+	}
+
+	//---------------------------------------------------------------------//
+	// REPORT
+	//---------------------------------------------------------------------//
+
+	void print()
+	{
+		TypeStats rootStats = getTypeStats(root);
+
+		// Totals for the whole design
+		ArrayList<TypeStats> list = new ArrayList<TypeStats>(types.values());
+		long totalInstances = 0, totalLeafCells = 0;
+		long truthTableBytes = 0, inputArrayBytes = 0, outputArrayBytes = 0, nameBytes = 0;
+		long fanOut[] = new long[FAN_OUT_LIMITS.length+1];
+		int numCollapsed = 0;
+		for (int i=0; i<list.size(); i++) {
+			TypeStats ts = list.get(i);
+			ts.instances = rootStats.typeCounts.get(ts.type);
+			Long sim = rootStats.simCounts.get(ts.type);
+			ts.simulatedInstances = (sim == null) ? 0 : sim;
+
+			totalInstances += ts.instances;
+			if (ts.leaf) totalLeafCells += ts.instances;
+			truthTableBytes += ts.truthTableBytes;
+			inputArrayBytes += ts.instances * ts.inputArrayBytes;
+			outputArrayBytes += ts.instances * ts.outputArrayBytes;
+			nameBytes += ts.getNameBytes();
+			for (int j=0; j<fanOut.length; j++) fanOut[j] += ts.instances * ts.fanOut[j];
+			if (ts.collapsed) numCollapsed++;
+		}
+
+		// Logic depth, counting each leaf cell as one level
+		for (int i=0; i<root.inputs.length; i++) root.inputs[i] = 0;
+		root.simulatePropagationDelay(true);
+		int maxDepth = 0;
+		for (int i=0; i<root.outputs.length; i++) {
+			if (root.outputs[i] > maxDepth) maxDepth = root.outputs[i];
+		}
+
+		System.out.println("\nCIRCUIT STATISTICS: " + root.type + "\n");
+		System.out.println("Circuit instances : " + totalInstances);
+		System.out.println("Leaf cells        : " + totalLeafCells);
+		System.out.println("Simulated cells   : " + rootStats.simulatedCells);
+		System.out.println("Maximum depth     : " + maxDepth);
+		System.out.println("Circuit types     : " + list.size() + " ("
+			+ numCollapsed + " would collapse to truth or state tables)");
+
+		System.out.println("\nFAN-OUT:");
+		for (int i=0; i<fanOut.length; i++) {
+			String range;
+			if (i == fanOut.length-1) range = (FAN_OUT_LIMITS[i-1]+1) + "+";
+			else if (i == 0 || FAN_OUT_LIMITS[i] == FAN_OUT_LIMITS[i-1]+1) range = "" + FAN_OUT_LIMITS[i];
+			else range = (FAN_OUT_LIMITS[i-1]+1) + "-" + FAN_OUT_LIMITS[i];
+			System.out.printf("  %-8s %12d wires%n", range, fanOut[i]);
+		}
+
+		System.out.println("\nESTIMATED MEMORY (bytes):");
+		System.out.printf("  truthTable  %14d%n", truthTableBytes);
+		System.out.printf("  inputArrays %14d%n", inputArrayBytes);
+		System.out.printf("  outputArrays%14d%n", outputArrayBytes);
+		System.out.printf("  name lists  %14d%n", nameBytes);
+		System.out.printf("  total       %14d%n",
+			truthTableBytes + inputArrayBytes + outputArrayBytes + nameBytes);
+
+		// Types, most expensive to simulate first.  Every level of a
+		// hierarchy has the same total cost, so sort by the cost of the
+		// type's own cells first.
+		Collections.sort(list, (a, b) -> {
+			if (a.getSelfCost() != b.getSelfCost()) {
+				return Long.compare(b.getSelfCost(), a.getSelfCost());
+			}
+			if (a.getTotalCost() != b.getTotalCost()) {
+				return Long.compare(b.getTotalCost(), a.getTotalCost());
+			}
+			return Long.compare(b.getBytes(), a.getBytes());
+		});
+		System.out.println("\nTYPES (by simulation cost):");
+		System.out.printf("  %-16s %10s %10s %10s %12s %12s %12s  %s%n", "type", "instances",
+			"simulated", "leafCells", "selfCost", "totalCost", "bytes", "kind");
+		for (int i=0; i<list.size(); i++) {
+			TypeStats ts = list.get(i);
+			String kind = "subcircuits";
+			if (ts.sequential) kind = "state table (would collapse)";
+			else if (ts.collapsed) kind = "truth table (would collapse)";
+			else if (ts.leaf) kind = "truth table";
+			System.out.printf("  %-16s %10d %10d %10d %12d %12d %12d  %s%n", ts.type,
+				ts.instances, ts.simulatedInstances, ts.leafCells,
+				ts.getSelfCost(), ts.getTotalCost(), ts.getBytes(), kind);
+		}
+	}
+}
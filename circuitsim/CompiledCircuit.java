@@ -0,0 +1,211 @@
+// CompiledCircuit.java
+// A loaded circuit flattened into a list of cells that read and write
+// numbered wires.  A compiled circuit is never modified after it is
+// built, so one instance can be shared by any number of threads, each
+// simulating it through its own CircuitContext.
+//
+// A gate-level compiled circuit keeps every leaf cell from the circuit
+// files, instead of using truth tables calculated for subcircuits.
+
+package circuitsim;
+
+import java.io.*;
+import java.util.*;
+
+public final class CompiledCircuit
+{
+	final String type;
+	final boolean gateLevel;
+	final String inputNames[];
+	final String outputNames[];
+	final int inputWires[];     // wire for each circuit input
+	final int outputWires[];    // wire for each circuit output
+	final int initialWires[];   // wire values before the first simulation
+	final int initialStates[];  // state of each STATE cell before simulating
+	final Cell cells[];         // cells in simulation order
+
+	//---------------------------------------------------------------------//
+	// Loading
+	//---------------------------------------------------------------------//
+
+	// Load a circuit file, along with the files of its subcircuits
+	public static CompiledCircuit fromFile(String fileName)
+	{
+		File file = new File(fileName);
+		String circuitType = file.getName();
+		if (circuitType.endsWith(".txt")) {
+			circuitType = circuitType.substring(0, circuitType.length()-4);
+		}
+		String directory = (file.getParent() == null) ? "" : file.getParent();
+		return load(new CircuitLibrary(directory), circuitType);
+	}
+
+	// Load a circuit from text.  Subcircuit files are read from directory.
+	public static CompiledCircuit fromString(String circuitType, String text,
+		String directory)
+	{
+		CircuitLibrary library = new CircuitLibrary(directory);
+		library.addSource(circuitType, text);
+		return load(library, circuitType);
+	}
+
+	static CompiledCircuit load(CircuitLibrary library, String circuitType)
+	{
+		library.verbose = false;
+		library.preload(circuitType);
+		Circuit c = new Circuit(library);
+		c.loadFromFile(circuitType, "");
+		return new CompiledCircuit(c);
+	}
+
+	//---------------------------------------------------------------------//
+	// Compiling
+	//---------------------------------------------------------------------//
+
+	// Temporary state used while compiling
+	private int numWires;
+	private ArrayList<Integer> initial;
+	private ArrayList<Integer> states;
+	private ArrayList<Cell> cellList;
+	private IdentityHashMap<int[], int[]> wireMap;
+	private HashMap<String, int[]> truthTables;
+
+	CompiledCircuit(Circuit root)
+	{
+		this(root, false);
+	}
+
+	CompiledCircuit(Circuit root, boolean gateLevel)
+	{
+		type = root.type;
+		this.gateLevel = gateLevel;
+		inputNames = root.inputNames.toArray(new String[root.inputNames.size()]);
+		outputNames = root.outputNames.toArray(new String[root.outputNames.size()]);
+
+		initial = new ArrayList<Integer>();
+		states = new ArrayList<Integer>();
+		cellList = new ArrayList<Cell>();
+		wireMap = new IdentityHashMap<>();
+		truthTables = new HashMap<>();
+
+		inputWires = getWires(root.inputs);
+		outputWires = getWires(root.outputs);
+		compile(root);
+
+		initialWires = new int[numWires];
+		for (int i=0; i<numWires; i++) initialWires[i] = initial.get(i);
+		initialStates = new int[states.size()];
+		for (int i=0; i<initialStates.length; i++) initialStates[i] = states.get(i);
+		cells = cellList.toArray(new Cell[cellList.size()]);
+
+		initial = null;
+		states = null;
+		cellList = null;
+		wireMap = null;
+		truthTables = null;
+	}
+
+	// Wires holding the values of a circuit's input or output array
+	private int[] getWires(int arr[])
+	{
+		int wires[] = wireMap.get(arr);
+		if (wires == null) {
+			wires = new int[arr.length];
+			for (int i=0; i<arr.length; i++) {
+				wires[i] = numWires++;
+				initial.add(arr[i]);
+			}
+			wireMap.put(arr, wires);
+		}
+		return wires;
+	}
+
+	// Wire that a subcircuit input reads, or its own input wire if unconnected
+	private int getSourceWire(Circuit c, int i)
+	{
+		if (c.inputArrays[i] == null) return getWires(c.inputs)[i];
+		return getWires(c.inputArrays[i])[c.inputArrayIndices[i]];
+	}
+
+	private boolean isLeaf(Circuit c)
+	{
+		if (c.primitive != null) return true;
+		if (gateLevel) return c.truthTable != null && c.internalCircuits.size() == 0;
+		return c.truthTable != null || c.stateTable != null;
+	}
+
+	private void addLeafCell(Circuit c, int in[])
+	{
+		int out[] = getWires(c.outputs);
+		int delay[] = c.propagationDelay;
+		if (delay == null) {
+			delay = new int[out.length];
+			Arrays.fill(delay, 1);
+		}
+		if (c.primitive != null) {
+			cellList.add(new Cell(Cell.PRIMITIVE, in, out, null, c.primitive, delay));
+			return;
+		}
+		// Instances of a type share one copy of its truth or state table
+		int table[] = truthTables.get(c.type);
+		if (table == null) {
+			table = (c.truthTable != null) ? c.truthTable : c.stateTable;
+			truthTables.put(c.type, table);
+		}
+		if (c.truthTable != null) {
+			cellList.add(new Cell(Cell.TABLE, in, out, table, null, delay));
+		}
+		else {
+			cellList.add(new Cell(in, out, table, delay, states.size(), c.stateBits));
+			states.add(c.state);
+		}
+	}
+
+	private void compile(Circuit c)
+	{
+		if (isLeaf(c)) {
+			addLeafCell(c, getWires(c.inputs));
+			return;
+		}
+
+		for (int k=0; k<c.internalCircuits.size(); k++) {
+			Circuit d = c.internalCircuits.get(k);
+			int in[] = new int[d.inputs.length];
+			for (int i=0; i<in.length; i++) in[i] = getSourceWire(d, i);
+
+			// Leaf cells read their sources directly.  Other subcircuits
+			// gather their inputs first, just like Circuit.simulate().
+			if (isLeaf(d)) {
+				addLeafCell(d, in);
+			}
+			else {
+				cellList.add(new Cell(Cell.COPY, in, getWires(d.inputs), null, null, null));
+				compile(d);
+			}
+		}
+
+		int in[] = new int[c.outputs.length];
+		for (int i=0; i<in.length; i++) {
+			in[i] = getWires(c.outputArrays[i])[c.outputArrayIndices[i]];
+		}
+		cellList.add(new Cell(Cell.COPY, in, getWires(c.outputs), null, null, null));
+	}
+
+	//---------------------------------------------------------------------//
+	// Public Interface
+	//---------------------------------------------------------------------//
+
+	public String getType() { return type; }
+	public int getNumInputs() { return inputNames.length; }
+	public int getNumOutputs() { return outputNames.length; }
+	public String getInputName(int i) { return inputNames[i]; }
+	public String getOutputName(int i) { return outputNames[i]; }
+	public int getNumCells() { return cells.length; }
+
+	// Create a simulation context.  Contexts are cheap, and each one
+	// should be used by only one thread at a time.
+	public CircuitContext newContext()
+	{
+		return new CircuitContext(this);
+	}
+}
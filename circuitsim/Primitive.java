@@ -0,0 +1,476 @@
+// Primitive.java
+// Word-level circuits (gates, adders, muxes and comparators) that can
+// stand in for a gate-level subcircuit once it has been recognized.
+
+package circuitsim;
+
+import java.util.*;
+
+public class Primitive
+{
+	//---------------------------------------------------------------------//
+	// Primitive Definition
+	//---------------------------------------------------------------------//
+
+	static final int AND=0, OR=1, XOR=2, NAND=3, NOR=4, XNOR=5, NOT=6, BUF=7;
+	static final int ADD=8, MUX=9, EQ=10, LTU=11, LTS=12;
+	static final String opNames[] = {
+		"AND", "OR", "XOR", "NAND", "NOR", "XNOR", "NOT", "BUF",
+		"ADD", "MUX", "EQ", "LTU", "LTS"
+	};
+
+	// Position of the single bit carry/select input or carry output
+	static final int NONE=0, FIRST=1, LAST=2;
+
+	static final int MAX_WIDTH = 32;
+	static final int NUM_SAMPLES = 512;
+
+	int op;            // operation
+	int width;         // number of bits in each operand
+	boolean msbFirst;  // operands are listed most significant bit first
+	int extraIn;       // carry in (ADD) or select (MUX)
+	int extraOut;      // carry out (ADD)
+	boolean swap;      // MUX picks the second operand when select is 0
+
+	int delay[];       // propagation delay of the replaced subcircuit
+
+	// Delay from each input to each output of a replaced subcircuit, and
+	// the delay each output has regardless of its inputs.  An output's
+	// delay is the largest of its constant delay and input delay plus
+	// arrival time over the inputs it depends on.
+	static final int NO_PATH = Integer.MIN_VALUE;
+	int inputDelay[][];  // [output][input], NO_PATH if not connected
+	int constantDelay[];
+
+	Primitive(int op, int width, boolean msbFirst, int extraIn, int extraOut,
+		boolean swap)
+	{
+		this.op = op;
+		this.width = width;
+		this.msbFirst = msbFirst;
+		this.extraIn = extraIn;
+		this.extraOut = extraOut;
+		this.swap = swap;
+	}
+
+	String getName() { return opNames[op] + width; }
+
+	int numOperands() { return (op == NOT || op == BUF) ? 1 : 2; }
+
+	// Position in the input list of the given bit (0 = least significant)
+	// of an operand
+	int operandPos(int operand, int bit)
+	{
+		int pos = ((extraIn == FIRST) ? 1 : 0) + operand*width;
+		return pos + (msbFirst ? width-1-bit : bit);
+	}
+
+	// Position in the input list of the carry in or select
+	int extraInPos()
+	{
+		return (extraIn == FIRST) ? 0 : numOperands()*width;
+	}
+
+	// Position in the output list of the given result bit
+	int resultPos(int bit)
+	{
+		int pos = (extraOut == FIRST) ? 1 : 0;
+		return pos + (msbFirst ? width-1-bit : bit);
+	}
+
+	// Position in the output list of the carry out
+	int extraOutPos()
+	{
+		return (extraOut == FIRST) ? 0 : width;
+	}
+
+	//---------------------------------------------------------------------//
+	// SIMULATION FUNCTIONS
+	//---------------------------------------------------------------------//
+
+	// Bits are read from in[inMap[i]] (or in[i] if inMap is null), and
+	// written to out[outMap[i]] (or out[i] if outMap is null).
+	void simulate(int in[], int inMap[], int out[], int outMap[])
+	{
+		int pos = 0;
+		int extra = 0;
+		if (extraIn == FIRST) extra = getBit(in, inMap, pos++);
+		long a = getWord(in, inMap, pos);
+		pos += width;
+		long b = 0;
+		if (numOperands() == 2) {
+			b = getWord(in, inMap, pos);
+			pos += width;
+		}
+		if (extraIn == LAST) extra = getBit(in, inMap, pos);
+
+		long r;
+		switch (op) {
+			case AND:  r = a & b; break;
+			case OR:   r = a | b; break;
+			case XOR:  r = a ^ b; break;
+			case NAND: r = ~(a & b); break;
+			case NOR:  r = ~(a | b); break;
+			case XNOR: r = ~(a ^ b); break;
+			case NOT:  r = ~a; break;
+			case BUF:  r = a; break;
+			case ADD:  r = a + b + extra; break;
+			case MUX:  r = ((extra != 0) != swap) ? b : a; break;
+			case EQ:   r = (a == b) ? 1 : 0; break;
+			case LTU:  r = (a < b) ? 1 : 0; break;
+			default:   r = (signExtend(a) < signExtend(b)) ? 1 : 0; break;
+		}
+
+		// Comparators have a single output bit
+		if (op >= EQ) {
+			putBit(out, outMap, 0, (int)r);
+			return;
+		}
+		pos = 0;
+		if (extraOut == FIRST) putBit(out, outMap, pos++, (int)(r >> width) & 0x1);
+		putWord(out, outMap, pos, r);
+		if (extraOut == LAST) putBit(out, outMap, pos+width, (int)(r >> width) & 0x1);
+	}
+
+	int getBit(int in[], int inMap[], int pos)
+	{
+		return (inMap == null) ? in[pos] : in[inMap[pos]];
+	}
+
+	void putBit(int out[], int outMap[], int pos, int val)
+	{
+		if (outMap == null) out[pos] = val;
+		else out[outMap[pos]] = val;
+	}
+
+	long getWord(int in[], int inMap[], int pos)
+	{
+		long w = 0;
+		for (int i=0; i<width; i++) {
+			int sh = msbFirst ? (width-1-i) : i;
+			w |= (long)getBit(in, inMap, pos+i) << sh;
+		}
+		return w;
+	}
+
+	void putWord(int out[], int outMap[], int pos, long w)
+	{
+		for (int i=0; i<width; i++) {
+			int sh = msbFirst ? (width-1-i) : i;
+			putBit(out, outMap, pos+i, (int)(w >> sh) & 0x1);
+		}
+	}
+
+	long signExtend(long w)
+	{
+		return (w << (64-width)) >> (64-width);
+	}
+
+	//---------------------------------------------------------------------//
+	// RECOGNITION FUNCTIONS
+	//---------------------------------------------------------------------//
+
+	// List every primitive layout with the given number of inputs and outputs
+	static ArrayList<Primitive> getCandidates(int numInputs, int numOutputs)
+	{
+		ArrayList<Primitive> list = new ArrayList<Primitive>();
+		for (int order=0; order<2; order++) {
+			boolean msb = (order == 0);
+			int n = numOutputs;
+
+			// Bitwise gates: n, n -> n
+			if (n <= MAX_WIDTH && numInputs == 2*n) {
+				for (int op=AND; op<=XNOR; op++) {
+					list.add(new Primitive(op, n, msb, NONE, NONE, false));
+				}
+			}
+			if (n <= MAX_WIDTH && numInputs == n) {
+				list.add(new Primitive(NOT, n, msb, NONE, NONE, false));
+				list.add(new Primitive(BUF, n, msb, NONE, NONE, false));
+			}
+
+			// Adders: [ci], n, n, [ci] -> [co], n, [co]
+			for (int ci=NONE; ci<=LAST; ci++) {
+				for (int co=NONE; co<=LAST; co++) {
+					int w = numOutputs - ((co == NONE) ? 0 : 1);
+					int in = 2*w + ((ci == NONE) ? 0 : 1);
+					if (w >= 1 && w <= MAX_WIDTH && numInputs == in) {
+						list.add(new Primitive(ADD, w, msb, ci, co, false));
+					}
+				}
+			}
+
+			// Multiplexers: [sel], n, n, [sel] -> n
+			if (n <= MAX_WIDTH && numInputs == 2*n+1) {
+				for (int sel=FIRST; sel<=LAST; sel++) {
+					list.add(new Primitive(MUX, n, msb, sel, NONE, false));
+					list.add(new Primitive(MUX, n, msb, sel, NONE, true));
+				}
+			}
+
+			// Comparators: n, n -> 1
+			int w = numInputs/2;
+			if (numOutputs == 1 && numInputs%2 == 0 && w >= 2 && w <= MAX_WIDTH) {
+				list.add(new Primitive(EQ, w, msb, NONE, NONE, false));
+				list.add(new Primitive(LTU, w, msb, NONE, NONE, false));
+				list.add(new Primitive(LTS, w, msb, NONE, NONE, false));
+			}
+		}
+		return list;
+	}
+
+	// Find a primitive that behaves like the circuit.  Circuits with a truth
+	// table are matched exactly against the table; others are matched
+	// against a fixed set of sampled input vectors.
+	static Primitive recognize(Circuit c)
+	{
+		int numInputs = c.inputs.length;
+		int numOutputs = c.outputs.length;
+		ArrayList<Primitive> candidates = getCandidates(numInputs, numOutputs);
+		if (candidates.size() == 0) return null;
+
+		int in[] = new int[numInputs];
+		int out[] = new int[numOutputs];
+
+		if (c.truthTable != null) {
+			for (int k=0; k<candidates.size(); k++) {
+				Primitive p = candidates.get(k);
+				boolean match = true;
+				for (int r=0; r<c.truthTable.length && match; r++) {
+					for (int i=0; i<numInputs; i++) in[i] = (r>>i) & 0x1;
+					p.simulate(in, null, out, null);
+					int val = 0;
+					for (int i=0; i<numOutputs; i++) val |= out[i] << i;
+					match = (val == c.truthTable[r]);
+				}
+				if (match) return p;
+			}
+			return null;
+		}
+
+		// Gather the circuit's response to the sample vectors
+		int vectors[][] = new int[NUM_SAMPLES][numInputs];
+		int responses[][] = new int[NUM_SAMPLES][numOutputs];
+		Random rand = new Random(numInputs*31 + numOutputs);
+		for (int v=0; v<NUM_SAMPLES; v++) {
+			int vec[] = vectors[v];
+			for (int i=0; i<numInputs; i++) {
+				if (v == 0) vec[i] = 0;
+				else if (v == 1) vec[i] = 1;
+				else if (v%4 == 2) vec[i] = (rand.nextInt(8) == 0) ? 1 : 0;
+				else if (v%4 == 3) vec[i] = (rand.nextInt(8) == 0) ? 0 : 1;
+				else vec[i] = rand.nextInt(2);
+			}
+			// Equal operands, so comparators see both outcomes
+			if (v%8 == 4) {
+				for (int i=0; i<numInputs/2; i++) vec[i+numInputs/2] = vec[i];
+			}
+			System.arraycopy(vec, 0, c.inputs, 0, numInputs);
+			c.simulate();
+			System.arraycopy(c.outputs, 0, responses[v], 0, numOutputs);
+		}
+
+		for (int k=0; k<candidates.size(); k++) {
+			Primitive p = candidates.get(k);
+			boolean match = true;
+			for (int v=0; v<NUM_SAMPLES && match; v++) {
+				p.simulate(vectors[v], null, out, null);
+				match = Arrays.equals(out, responses[v]);
+			}
+			if (match) return p;
+		}
+		return null;
+	}
+
+	// Find a primitive made of slices of already-recognized children, such
+	// as a ripple-carry adder built from smaller adders or a wide gate built
+	// from narrow ones.  Every input and output of every child is checked
+	// against the wiring the primitive needs, so a match is exact.
+	static Primitive recognizeChain(Circuit c)
+	{
+		int n = c.internalCircuits.size();
+		if (n < 2) return null;
+		Primitive first = c.internalCircuits.get(0).matchedPrimitive;
+		if (first == null || first.op >= EQ) return null;
+		int totalWidth = 0;
+		for (int k=0; k<n; k++) {
+			Primitive q = c.internalCircuits.get(k).matchedPrimitive;
+			if (q == null || q.op != first.op || q.swap != first.swap) return null;
+			totalWidth += q.width;
+		}
+		if (totalWidth > MAX_WIDTH) return null;
+
+		ArrayList<Primitive> candidates = getCandidates(c.inputs.length, c.outputs.length);
+		for (int k=0; k<candidates.size(); k++) {
+			Primitive p = candidates.get(k);
+			if (p.op != first.op || p.swap != first.swap || p.width != totalWidth) continue;
+			if (matchesChain(c, p)) return p;
+		}
+		return null;
+	}
+
+	// Check that the children of c compute p, each child handling a run of
+	// bits and adders passing the carry from one child to the next
+	static boolean matchesChain(Circuit c, Primitive p)
+	{
+		int n = c.internalCircuits.size();
+		Circuit slice[] = new Circuit[p.width];   // child computing each bit
+		int base[] = new int[p.width];            // lowest bit of that child
+		int offset[] = new int[n];                // lowest bit of each child
+		int order[][] = new int[n][];             // input order of each child
+		for (int k=0; k<n; k++) {
+			Circuit d = c.internalCircuits.get(k);
+			Primitive q = d.matchedPrimitive;
+			ArrayList<int[]> orders = getInputOrders(q, d.inputs.length);
+			offset[k] = -1;
+			for (int r=0; r<orders.size() && offset[k] < 0; r++) {
+				order[k] = orders.get(r);
+				offset[k] = matchSlice(c, p, d, order[k]);
+			}
+			if (offset[k] < 0) return false;
+			for (int b=0; b<q.width; b++) {
+				if (slice[offset[k]+b] != null) return false;
+				slice[offset[k]+b] = d;
+				base[offset[k]+b] = offset[k];
+			}
+		}
+
+		// Adders take their carry from the slice below
+		if (p.op == ADD) {
+			for (int k=0; k<n; k++) {
+				Circuit d = c.internalCircuits.get(k);
+				if (offset[k] == 0) continue;
+				Circuit prev = slice[offset[k]-1];
+				Primitive q = prev.matchedPrimitive;
+				if (q.extraOut == NONE || !isWiredTo(d,
+						order[k][d.matchedPrimitive.extraInPos()], prev.outputs,
+						q.extraOutPos())) return false;
+			}
+		}
+
+		// Outputs come from the slices computing them
+		for (int b=0; b<p.width; b++) {
+			Circuit d = slice[b];
+			int bit = d.matchedPrimitive.resultPos(b - base[b]);
+			int i = p.resultPos(b);
+			if (c.outputArrays[i] != d.outputs || c.outputArrayIndices[i] != bit) return false;
+		}
+		if (p.extraOut != NONE) {
+			Circuit d = slice[p.width-1];
+			Primitive q = d.matchedPrimitive;
+			int i = p.extraOutPos();
+			if (q.extraOut == NONE || c.outputArrays[i] != d.outputs ||
+				c.outputArrayIndices[i] != q.extraOutPos()) return false;
+		}
+		return true;
+	}
+
+	// Check the inputs of one child, read in the given order, against the
+	// bits of p it would compute.  Returns the lowest of those bits, or -1.
+	// The carry into a slice other than the lowest is checked by the caller.
+	static int matchSlice(Circuit c, Primitive p, Circuit d, int order[])
+	{
+		Primitive q = d.matchedPrimitive;
+
+		// The child's lowest bit of the first operand tells where it sits
+		int i = order[q.operandPos(0, 0)];
+		if (d.inputArrays[i] != c.inputs) return -1;
+		int offset = -1;
+		for (int b=0; b<p.width; b++) {
+			if (p.operandPos(0, b) == d.inputArrayIndices[i]) offset = b;
+		}
+		if (offset < 0 || offset + q.width > p.width) return -1;
+
+		// Operand bits come straight from the matching inputs
+		for (int o=0; o<q.numOperands(); o++) {
+			for (int b=0; b<q.width; b++) {
+				if (!isWiredTo(d, order[q.operandPos(o, b)], c.inputs,
+						p.operandPos(o, offset+b))) return -1;
+			}
+		}
+
+		// A multiplexer select is shared by every slice
+		if (p.op == MUX && !isWiredTo(d, order[q.extraInPos()], c.inputs,
+				p.extraInPos())) return -1;
+
+		// The lowest adder slice takes the carry in, or a constant 0
+		if (p.op == ADD && q.extraIn == NONE && (offset != 0 || p.extraIn != NONE)) return -1;
+		if (p.op == ADD && q.extraIn != NONE && offset == 0) {
+			i = order[q.extraInPos()];
+			if (p.extraIn != NONE) {
+				if (!isWiredTo(d, i, c.inputs, p.extraInPos())) return -1;
+			}
+			else if (d.inputArrays[i] != null || d.inputs[i] != 0) return -1;
+		}
+		return offset;
+	}
+
+	// Orders in which the inputs of a primitive can be read without changing
+	// what it computes: the operands of most operations can be swapped, and
+	// all three inputs of a 1 bit adder with carry in are alike
+	static ArrayList<int[]> getInputOrders(Primitive q, int numInputs)
+	{
+		ArrayList<int[]> list = new ArrayList<int[]>();
+		int same[] = new int[numInputs];
+		for (int i=0; i<numInputs; i++) same[i] = i;
+		list.add(same);
+		if (q.op == ADD && q.width == 1 && q.extraIn != NONE) {
+			int perms[][] = { {0,2,1}, {1,0,2}, {1,2,0}, {2,0,1}, {2,1,0} };
+			for (int k=0; k<perms.length; k++) list.add(perms[k]);
+		}
+		else if (q.numOperands() == 2 && q.op != MUX) {
+			int swapped[] = same.clone();
+			for (int b=0; b<q.width; b++) {
+				swapped[q.operandPos(0, b)] = q.operandPos(1, b);
+				swapped[q.operandPos(1, b)] = q.operandPos(0, b);
+			}
+			list.add(swapped);
+		}
+		return list;
+	}
+
+	static boolean isWiredTo(Circuit d, int i, int arr[], int index)
+	{
+		return d.inputArrays[i] == arr && d.inputArrayIndices[i] == index;
+	}
+
+	// Work out how long each output of c takes to follow each input, by
+	// giving one input a late arrival time at a time
+	void calculateDelays(Circuit c)
+	{
+		final int LATE = 1<<20;
+		int numInputs = c.inputs.length;
+		int numOutputs = c.outputs.length;
+		inputDelay = new int[numOutputs][numInputs];
+		constantDelay = new int[numOutputs];
+
+		Arrays.fill(c.inputs, -LATE);
+		c.simulatePropagationDelay();
+		for (int j=0; j<numOutputs; j++) constantDelay[j] = c.outputs[j];
+		for (int i=0; i<numInputs; i++) {
+			Arrays.fill(c.inputs, 0);
+			c.inputs[i] = LATE;
+			c.simulatePropagationDelay();
+			for (int j=0; j<numOutputs; j++) {
+				inputDelay[j][i] = (c.outputs[j] >= LATE/2) ? c.outputs[j] - LATE : NO_PATH;
+			}
+		}
+		Arrays.fill(c.inputs, 0);
+		c.simulatePropagationDelay();
+		delay = c.outputs.clone();
+	}
+
+	// Output delays for the given input arrival times
+	void propagateDelays(int in[], int out[])
+	{
+		for (int j=0; j<out.length; j++) {
+			int t = constantDelay[j];
+			for (int i=0; i<in.length; i++) {
+				if (inputDelay[j][i] != NO_PATH && in[i] + inputDelay[j][i] > t) {
+					t = in[i] + inputDelay[j][i];
+				}
+			}
+			out[j] = t;
+		}
+	}
+}
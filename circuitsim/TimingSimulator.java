@@ -0,0 +1,359 @@
+// TimingSimulator.java
+// Event-driven timing simulation of a gate-level CompiledCircuit.  When a
+// cell's inputs change, each of its outputs is scheduled to change after
+// the cell's propagationDelay.  Events are kept on a timing wheel with one
+// bucket per time step, which is longer than the largest delay, so every
+// event in the current bucket happens now.
+//
+// With inertial delay (the default), a newly scheduled change on a wire
+// replaces one that is still pending, so pulses shorter than a cell's
+// delay never reach its output.  Otherwise every change is propagated
+// (transport delay).
+
+package circuitsim;
+
+import java.util.*;
+
+public class TimingSimulator
+{
+	static final int MAX_SETTLE_TIME = 1000000;
+	static final int MAX_STEPS_PER_TIME = 100000; // zero delay loops
+
+	CompiledCircuit circuit;
+	boolean inertial = true;
+
+	// Leaf cells, reading and writing wires after copies are removed
+	Cell cells[];
+	int alias[];               // wire that carries the value of each wire
+	int inputWires[];
+	int outputWires[];
+	int readerStart[];         // cells reading wire w are
+	int readers[];             //   readers[readerStart[w] .. readerStart[w+1]-1]
+
+	// Wire state
+	int value[];
+	int pendingValue[];        // value of the newest pending event
+	int pendingCount[];        // number of pending events
+	int seq[];                 // events with an older sequence are cancelled
+
+	// Timing wheel: each event is a (wire, value, sequence) triple
+	int wheelMask;
+	int buckets[][];
+	int bucketCount[];
+	int spareBucket[];
+	int numPending;
+	long time;
+
+	// Cells to evaluate at the current time
+	int evalList[];
+	int numEval;
+	int evalStamp[];
+	int stamp;
+	int cellOut[] = new int[64];
+
+	// Statistics for the last vector
+	long numEvents;
+	long numGlitches;
+	long numOutputGlitches;
+	long settleTime;
+	boolean settled;
+	boolean zeroDelayLoop;     // oscillated without time passing
+	int toggles[];             // value changes of each wire
+	int startValue[];
+	int changedWires[];
+	int numChanged;
+	boolean isOutput[];
+
+	TimingSimulator(CompiledCircuit circuit)
+	{
+		this.circuit = circuit;
+		int numWires = circuit.initialWires.length;
+
+		// Replace wires written by copies with the wire they copy
+		alias = new int[numWires];
+		for (int w=0; w<numWires; w++) alias[w] = w;
+		ArrayList<Cell> leafCells = new ArrayList<Cell>();
+		for (int k=0; k<circuit.cells.length; k++) {
+			Cell cell = circuit.cells[k];
+			if (cell.kind == Cell.COPY) {
+				for (int i=0; i<cell.in.length; i++) alias[cell.out[i]] = cell.in[i];
+			}
+			else {
+				leafCells.add(cell);
+			}
+		}
+		for (int w=0; w<numWires; w++) alias[w] = findAlias(w);
+
+		int maxDelay = 0;
+		cells = new Cell[leafCells.size()];
+		for (int k=0; k<cells.length; k++) {
+			Cell cell = leafCells.get(k);
+			int in[] = new int[cell.in.length];
+			for (int i=0; i<in.length; i++) in[i] = alias[cell.in[i]];
+			cells[k] = new Cell(cell.kind, in, cell.out, cell.truthTable,
+				cell.primitive, cell.delay);
+			for (int i=0; i<cell.delay.length; i++) {
+				if (cell.delay[i] > maxDelay) maxDelay = cell.delay[i];
+			}
+			if (cell.out.length > cellOut.length) cellOut = new int[cell.out.length];
+		}
+		inputWires = new int[circuit.inputWires.length];
+		for (int i=0; i<inputWires.length; i++) inputWires[i] = alias[circuit.inputWires[i]];
+		outputWires = new int[circuit.outputWires.length];
+		for (int i=0; i<outputWires.length; i++) outputWires[i] = alias[circuit.outputWires[i]];
+
+		// Cells reading each wire
+		readerStart = new int[numWires+1];
+		for (int k=0; k<cells.length; k++) {
+			for (int i=0; i<cells[k].in.length; i++) readerStart[cells[k].in[i]+1]++;
+		}
+		for (int w=0; w<numWires; w++) readerStart[w+1] += readerStart[w];
+		readers = new int[readerStart[numWires]];
+		int fill[] = readerStart.clone();
+		for (int k=0; k<cells.length; k++) {
+			for (int i=0; i<cells[k].in.length; i++) readers[fill[cells[k].in[i]]++] = k;
+		}
+
+		// Timing wheel longer than the largest delay
+		int wheelSize = 1;
+		while (wheelSize <= maxDelay) wheelSize *= 2;
+		wheelMask = wheelSize-1;
+		buckets = new int[wheelSize][];
+		for (int b=0; b<wheelSize; b++) buckets[b] = new int[48];
+		bucketCount = new int[wheelSize];
+		spareBucket = new int[48];
+
+		value = new int[numWires];
+		for (int w=0; w<numWires; w++) value[w] = circuit.initialWires[alias[w]];
+		pendingValue = new int[numWires];
+		pendingCount = new int[numWires];
+		seq = new int[numWires];
+		evalList = new int[cells.length];
+		evalStamp = new int[cells.length];
+		toggles = new int[numWires];
+		startValue = new int[numWires];
+		changedWires = new int[numWires];
+		isOutput = new boolean[numWires];
+		for (int i=0; i<outputWires.length; i++) isOutput[outputWires[i]] = true;
+
+		// Let the circuit settle from its initial wire values
+		stamp++;
+		for (int k=0; k<cells.length; k++) addEval(k);
+		run();
+	}
+
+	int findAlias(int w)
+	{
+		int steps = 0;
+		while (alias[w] != w && steps++ < alias.length) w = alias[w];
+		return w;
+	}
+
+	//---------------------------------------------------------------------//
+	// SIMULATION FUNCTIONS
+	//---------------------------------------------------------------------//
+
+	// Apply a new input vector, and simulate until the circuit settles.
+	// The final outputs are stored in out[].
+	void simulate(int in[], int out[])
+	{
+		for (int i=0; i<inputWires.length; i++) {
+			schedule(inputWires[i], in[i] & 0x1, 0);
+		}
+		run();
+		for (int i=0; i<outputWires.length; i++) out[i] = value[outputWires[i]];
+	}
+
+	void run()
+	{
+		long startTime = time;
+		numEvents = 0;
+		numGlitches = 0;
+		numOutputGlitches = 0;
+		settleTime = 0;
+		settled = true;
+		zeroDelayLoop = false;
+
+		while (numPending > 0 || numEval > 0) {
+			if (time - startTime > MAX_SETTLE_TIME) {
+				settled = false;
+				clearEvents();
+				break;
+			}
+			int b = (int)(time & wheelMask);
+			int steps = 0;
+			while (bucketCount[b] > 0 || numEval > 0) {
+				// A loop of zero delay cells can oscillate without time passing
+				if (++steps > MAX_STEPS_PER_TIME) {
+					settled = false;
+					zeroDelayLoop = true;
+					clearEvents();
+					break;
+				}
+
+				// Apply every event for the current time
+				int ev[] = buckets[b];
+				int n = bucketCount[b];
+				buckets[b] = spareBucket;
+				bucketCount[b] = 0;
+				numPending -= n/3;
+				stamp++;
+				for (int e=0; e<n; e+=3) {
+					int w = ev[e];
+					if (ev[e+2] != seq[w]) continue; // cancelled
+					pendingCount[w]--;
+					numEvents++;
+					if (value[w] == ev[e+1]) continue;
+					if (toggles[w] == 0) {
+						startValue[w] = value[w];
+						changedWires[numChanged++] = w;
+					}
+					toggles[w]++;
+					value[w] = ev[e+1];
+					settleTime = time - startTime;
+					for (int r=readerStart[w]; r<readerStart[w+1]; r++) addEval(readers[r]);
+				}
+				spareBucket = ev;
+
+				// Evaluate the cells whose inputs changed
+				int count = numEval;
+				numEval = 0;
+				for (int k=0; k<count; k++) evaluate(evalList[k]);
+			}
+			if (numPending > 0) time++;
+		}
+		time++;
+
+		// A wire that changes more than it needs to has glitched
+		for (int k=0; k<numChanged; k++) {
+			int w = changedWires[k];
+			int extra = toggles[w] - ((value[w] != startValue[w]) ? 1 : 0);
+			numGlitches += extra;
+			if (isOutput[w]) numOutputGlitches += extra;
+			toggles[w] = 0;
+		}
+		numChanged = 0;
+	}
+
+	void addEval(int k)
+	{
+		if (evalStamp[k] == stamp) return;
+		evalStamp[k] = stamp;
+		evalList[numEval++] = k;
+	}
+
+	void evaluate(int k)
+	{
+		Cell cell = cells[k];
+		int in[] = cell.in;
+		int out[] = cell.out;
+		if (cell.kind == Cell.TABLE) {
+			int row = 0;
+			for (int i=0; i<in.length; i++) row |= value[in[i]] << i;
+			int val = cell.truthTable[row];
+			for (int i=0; i<out.length; i++) cellOut[i] = (val >> i) & 0x1;
+		}
+		else {
+			cell.primitive.simulate(value, in, cellOut, null);
+		}
+		for (int i=0; i<out.length; i++) {
+			schedule(out[i], cellOut[i], cell.delay[i]);
+		}
+	}
+
+	void schedule(int w, int v, int delay)
+	{
+		int projected = (pendingCount[w] > 0) ? pendingValue[w] : value[w];
+		if (v == projected) return;
+		if (inertial && pendingCount[w] > 0) {
+			// Cancel the pending change; a pulse shorter than the delay is lost
+			seq[w]++;
+			pendingCount[w] = 0;
+			if (v == value[w]) return;
+		}
+
+		int b = (int)((time + delay) & wheelMask);
+		int ev[] = buckets[b];
+		int n = bucketCount[b];
+		if (n+3 > ev.length) {
+			ev = Arrays.copyOf(ev, 2*ev.length);
+			buckets[b] = ev;
+		}
+		ev[n] = w;
+		ev[n+1] = v;
+		ev[n+2] = seq[w];
+		bucketCount[b] = n+3;
+		numPending++;
+		pendingValue[w] = v;
+		pendingCount[w]++;
+	}
+
+	void clearEvents()
+	{
+		for (int b=0; b<bucketCount.length; b++) bucketCount[b] = 0;
+		for (int w=0; w<seq.length; w++) {
+			if (pendingCount[w] > 0) seq[w]++;
+			pendingCount[w] = 0;
+		}
+		numPending = 0;
+		numEval = 0;
+	}
+
+	//---------------------------------------------------------------------//
+	// TEST FUNCTIONS
+	//---------------------------------------------------------------------//
+
+	void printStats(int vector)
+	{
+		System.out.print("Vector " + vector + ": ");
+		if (settled) System.out.print("settled at " + settleTime);
+		else if (zeroDelayLoop) System.out.print("DID NOT SETTLE, zero delay loop at "
+			+ settleTime);
+		else System.out.print("DID NOT SETTLE within " + MAX_SETTLE_TIME);
+		System.out.println(", " + numEvents + " events, " + numGlitches
+			+ " glitches (" + numOutputGlitches + " on outputs)");
+	}
+
+	// Run the test cases in a test file, reporting timing for each one
+	void runTestCase(Circuit c, String fileName)
+	{
+		c.openCircuitFile(fileName);
+		int in[] = new int[inputWires.length];
+		int out[] = new int[outputWires.length];
+		int desiredOutputs[] = new int[outputWires.length];
+		int vector = 0, totalErrors = 0;
+		long totalEvents = 0, totalGlitches = 0, maxSettleTime = 0;
+		long startNanos = System.nanoTime();
+
+		System.out.println("\nTiming test cases from " + fileName + ".txt"
+			+ (inertial ? " (inertial delay)\n" : " (transport delay)\n"));
+		c.library.testCaseDescription.clear();
+
+		while (c.readTestCase(fileName, in, desiredOutputs)) {
+			simulate(in, out);
+			vector++;
+			c.printTestCaseDescription();
+			printStats(vector);
+			int numErrors = 0;
+			for (int i=0; i<out.length; i++) {
+				if (out[i] != desiredOutputs[i]) numErrors++;
+			}
+			if (numErrors > 0) System.out.println("  " + numErrors + " output errors");
+			totalErrors += numErrors;
+			totalEvents += numEvents;
+			totalGlitches += numGlitches;
+			if (settleTime > maxSettleTime) maxSettleTime = settleTime;
+		}
+
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		System.out.println("\nVectors: " + vector + ", events: " + totalEvents
+			+ ", glitches: " + totalGlitches + ", max settle time: " + maxSettleTime);
+		System.out.printf("Events per second: %.0f%n", totalEvents / Math.max(seconds, 1e-9));
+		if (totalErrors > 0) {
+			System.out.println("\n***** " + totalErrors + " ERRORS FOUND. *****");
+		}
+		else {
+			System.out.println("\n***** ALL TEST CASES PASSED. *****");
+		}
+	}
+}